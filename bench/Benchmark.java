@@ -0,0 +1,76 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A piece of code to be timed by the BenchmarkRunner.
+ */
+public abstract class Benchmark {
+	private final String name;
+	private final String param;
+	private final double unitsPerOp;
+	private final String unit;
+
+	/**
+	 * @param name The name of the benchmark.
+	 * @param param The parameter the benchmark is run with, such as a variation or resolution.
+	 * @param unitsPerOp How many units of work one operation is, for reporting the throughput.
+	 * @param unit The name of a unit of work.
+	 */
+	public Benchmark(String name, String param, double unitsPerOp, String unit) {
+		this.name = name;
+		this.param = param;
+		this.unitsPerOp = unitsPerOp;
+		this.unit = unit;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getParam() {
+		return param;
+	}
+
+	public double getUnitsPerOp() {
+		return unitsPerOp;
+	}
+
+	public String getUnit() {
+		return unit;
+	}
+
+	/**
+	 * Prepare anything the operations need, outside of the timed region.
+	 */
+	public void setUp() throws Exception {
+	}
+
+	/**
+	 * Release anything set up for the operations.
+	 */
+	public void tearDown() throws Exception {
+	}
+
+	/**
+	 * Perform the operation the given number of times.
+	 *
+	 * @return A value derived from the results of the operations, which the
+	 * runner consumes so that the JIT compiler can not remove them as dead code.
+	 */
+	public abstract double run(long ops) throws Exception;
+}
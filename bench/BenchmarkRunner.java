@@ -0,0 +1,358 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.FileWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Times the hot paths of the renderer: every variation on its own, applying
+ * whole flames with a few mixes of active variations, playing the chaos game
+ * and tone mapping, and writes the results as CSV so they can be compared
+ * between versions.
+ *
+ * Each benchmark is first calibrated to find how many operations take about
+ * one measurement interval, then run for a number of warm-up intervals so the
+ * JIT compiler settles, and then for a number of measured intervals. The score
+ * is the mean time per operation over the measured intervals.
+ *
+ * Usage: ant bench -Dbench.args="[options]"
+ */
+public class BenchmarkRunner {
+	// Number of random points the variation benchmarks cycle through.
+	private static final int NUM_POINTS = 1024;
+
+	// Consumes the results of the benchmarks, so they can not be optimized away.
+	private static volatile double sink;
+
+	private static void usage() {
+		System.err.println("Usage: java -cp bin:bench-bin BenchmarkRunner [options]");
+		System.err.println("  -o <file>         write the results as CSV to the file (default: standard output)");
+		System.err.println("  -filter <text>    only run the benchmarks whose name or parameter contains the text");
+		System.err.println("  -warmup <n>       number of warm-up intervals (default: 3)");
+		System.err.println("  -measure <n>      number of measured intervals (default: 5)");
+		System.err.println("  -time <ms>        length of an interval in milliseconds (default: 500)");
+		System.err.println("  -seed <n>         seed of the benchmarked flame (default: 42)");
+		System.exit(1);
+	}
+
+	public static void main(String args[]) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+
+		String output = null;
+		String filter = null;
+		int warmup = 3;
+		int measure = 5;
+		long time = 500;
+		long seed = 42;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "-o":
+					output = args[++i];
+					break;
+				case "-filter":
+					filter = args[++i];
+					break;
+				case "-warmup":
+					warmup = Integer.parseInt(args[++i]);
+					break;
+				case "-measure":
+					measure = Integer.parseInt(args[++i]);
+					break;
+				case "-time":
+					time = Long.parseLong(args[++i]);
+					break;
+				case "-seed":
+					seed = Long.parseLong(args[++i]);
+					break;
+				default:
+					usage();
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+		}
+		if (measure < 1) {
+			usage();
+		}
+
+		List<Benchmark> benchmarks = new ArrayList<>();
+		addVariationBenchmarks(benchmarks, seed);
+		addApplyAllBenchmarks(benchmarks, seed);
+		addIterationBenchmarks(benchmarks, seed);
+		addToneMapBenchmarks(benchmarks, seed);
+
+		Writer writer = output == null ? new OutputStreamWriter(System.out) : new FileWriter(output);
+		try (PrintWriter csv = new PrintWriter(writer)) {
+			csv.println("benchmark,param,samples,ns_per_op,stdev_ns_per_op,throughput,throughput_unit");
+			for (Benchmark benchmark : benchmarks) {
+				if (filter != null && !benchmark.getName().contains(filter) && !benchmark.getParam().contains(filter)) {
+					continue;
+				}
+				System.err.println("[BENCH] " + benchmark.getName() + " " + benchmark.getParam());
+				double[] scores = measure(benchmark, warmup, measure, time);
+
+				double mean = 0;
+				for (double score : scores) {
+					mean += score;
+				}
+				mean /= scores.length;
+				double variance = 0;
+				for (double score : scores) {
+					variance += (score - mean) * (score - mean);
+				}
+				double stdev = scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0;
+				double throughput = benchmark.getUnitsPerOp() * 1e9 / mean;
+
+				csv.println(String.format(Locale.ROOT, "%s,%s,%d,%.3f,%.3f,%.1f,%s/s", benchmark.getName(),
+						benchmark.getParam(), scores.length, mean, stdev, throughput, benchmark.getUnit()));
+				csv.flush();
+			}
+		}
+	}
+
+	/**
+	 * Run the benchmark and return the time per operation of each measured interval in nanoseconds.
+	 */
+	private static double[] measure(Benchmark benchmark, int warmup, int measure, long time) throws Exception {
+		benchmark.setUp();
+		try {
+			// Double the number of operations until they take a tenth of an interval.
+			long ops = 1;
+			long elapsed;
+			while ((elapsed = timed(benchmark, ops)) < time * 100000L) {
+				ops *= 2;
+			}
+			ops = Math.max(1, (long) (ops * (time * 1000000.0 / elapsed)));
+
+			for (int i = 0; i < warmup; i++) {
+				timed(benchmark, ops);
+			}
+			double[] scores = new double[measure];
+			for (int i = 0; i < measure; i++) {
+				scores[i] = timed(benchmark, ops) / (double) ops;
+			}
+			return scores;
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * The time taken to perform the operations, in nanoseconds.
+	 */
+	private static long timed(Benchmark benchmark, long ops) throws Exception {
+		long start = System.nanoTime();
+		sink += benchmark.run(ops);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Random points in [-1, 1]^2, with the derived inputs of the variations.
+	 */
+	private static double[][] randomPoints(long seed) {
+		FastRandom rnd = new FastRandom(seed);
+		double[][] points = new double[NUM_POINTS][];
+		for (int i = 0; i < NUM_POINTS; i++) {
+			double x = rnd.nextDouble() * 2 - 1;
+			double y = rnd.nextDouble() * 2 - 1;
+			points[i] = new double[] {
+					x, y, Math.sqrt(x * x + y * y), Math.atan(x / y), Math.atan(y / x)
+			};
+		}
+		return points;
+	}
+
+	/**
+	 * One benchmark per variation, applying it on its own to random points.
+	 */
+	private static void addVariationBenchmarks(List<Benchmark> benchmarks, long seed) {
+		final Flame flame = new Flame(seed);
+		final double[][] points = randomPoints(seed);
+		for (final Variation variation : flame.getVariations()) {
+			benchmarks.add(new Benchmark("Variation.apply", variation.toString(), 1, "applies") {
+				private final FastRandom rnd = new FastRandom(flame.getSeed());
+				private final double[] c = flame.getFunctions()[0].coefficients;
+				private final double[] p = new double[2];
+				private final double[] newp = new double[2];
+
+				@Override
+				public double run(long ops) {
+					double sum = 0;
+					for (long i = 0; i < ops; i++) {
+						double[] point = points[(int) (i & (NUM_POINTS - 1))];
+						p[0] = point[0];
+						p[1] = point[1];
+						variation.apply(p, newp, c, point[2], point[3], point[4], rnd);
+						sum += newp[0] + newp[1];
+					}
+					return sum;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Benchmarks of applying a whole flame function to random points, for a
+	 * flame with only the linear variation, the flame of the seed with its
+	 * random mix of variations, and a flame with every variation active.
+	 */
+	private static void addApplyAllBenchmarks(List<Benchmark> benchmarks, long seed) {
+		Flame flame = new Flame(seed);
+		Variation[] variations = flame.getVariations();
+		double[] linear = new double[variations.length];
+		linear[0] = 1;
+		double[] all = new double[variations.length];
+		for (int v = 0; v < all.length; v++) {
+			all[v] = 1.0 / all.length;
+		}
+
+		final double[][] points = randomPoints(seed);
+		CompiledFlame[] mixes = {
+				new CompiledFlame(variations, linear, flame.getFunctions()),
+				flame.getCompiled(),
+				new CompiledFlame(variations, all, flame.getFunctions())
+		};
+		String[] names = {"linear", "seed", "all"};
+		for (int m = 0; m < mixes.length; m++) {
+			final CompiledFlame compiled = mixes[m];
+			final long rndSeed = seed;
+			String param = names[m] + " (" + compiled.getNumActiveVariations() + " active)";
+			benchmarks.add(new Benchmark("CompiledFlame.applyAll", param, 1, "applies") {
+				private final FastRandom rnd = new FastRandom(rndSeed);
+				private final FlameFunction[] functions = compiled.getFunctions();
+				private final double[] p = new double[2];
+				private final double[] newp = new double[2];
+
+				@Override
+				public double run(long ops) {
+					double sum = 0;
+					for (long i = 0; i < ops; i++) {
+						double[] point = points[(int) (i & (NUM_POINTS - 1))];
+						p[0] = point[0];
+						p[1] = point[1];
+						compiled.applyAll(functions[(int) (i % functions.length)], p, newp, rnd);
+						sum += p[0] + p[1];
+					}
+					return sum;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Benchmarks of playing the chaos game into the histogram, continuing the
+	 * same game for a given number of iterations per render. Each render also
+	 * merges the workers' histograms and tone maps the image, so smaller numbers
+	 * of iterations show the fixed cost of a render.
+	 */
+	private static void addIterationBenchmarks(List<Benchmark> benchmarks, final long seed) {
+		for (final long iterations : new long[] {10000L, 100000L, 1000000L}) {
+			benchmarks.add(new Benchmark("Renderer.iterate", Long.toString(iterations), iterations, "iterations") {
+				private ExecutorService workers;
+				private Renderer renderer;
+				private Flame flame;
+				private BufferedImage image;
+
+				@Override
+				public void setUp() {
+					workers = Executors.newCachedThreadPool();
+					renderer = createRenderer(workers, 640, 480);
+					flame = new Flame(seed);
+					image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+				}
+
+				@Override
+				public void tearDown() {
+					workers.shutdown();
+				}
+
+				@Override
+				public double run(long ops) throws InterruptedException {
+					double sum = 0;
+					for (long i = 0; i < ops; i++) {
+						renderer.setNumIterations(renderer.getIterationsDone() + iterations);
+						sum += renderer.render(flame, image, true);
+					}
+					return sum;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Benchmarks of tone mapping an already played histogram at several resolutions.
+	 */
+	private static void addToneMapBenchmarks(List<Benchmark> benchmarks, final long seed) {
+		int[][] sizes = {{640, 480}, {1024, 768}, {1920, 1080}};
+		for (int[] size : sizes) {
+			final int width = size[0];
+			final int height = size[1];
+			benchmarks.add(new Benchmark("Renderer.toneMap", width + "x" + height, 1, "images") {
+				private ExecutorService workers;
+				private Renderer renderer;
+				private Flame flame;
+				private BufferedImage image;
+
+				@Override
+				public void setUp() throws InterruptedException {
+					workers = Executors.newCachedThreadPool();
+					renderer = createRenderer(workers, width, height);
+					renderer.setNumIterations(1000000L);
+					flame = new Flame(seed);
+					image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+					renderer.render(flame, image, true);
+				}
+
+				@Override
+				public void tearDown() {
+					workers.shutdown();
+				}
+
+				@Override
+				public double run(long ops) throws InterruptedException {
+					double sum = 0;
+					for (long i = 0; i < ops; i++) {
+						sum += renderer.render(flame, image, false);
+					}
+					return sum;
+				}
+			});
+		}
+	}
+
+	/**
+	 * A renderer with the default settings of the GUI, at the given size.
+	 */
+	private static Renderer createRenderer(ExecutorService workers, int width, int height) {
+		Renderer renderer = new Renderer(workers);
+		renderer.setSize(width, height);
+		renderer.setSuperSampleSize(3);
+		renderer.setGamma(2.2);
+		renderer.setZoom(1);
+		return renderer;
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks the parts of the renderer that a mistake would silently break: that
+ * compact hit counters keep counting past the limit of an int by spilling into
+ * their side table, also when their histogram is written and read back, and
+ * that a render resumed from a checkpoint ends with the same histogram as one
+ * played in one go, for every histogram storage.
+ *
+ * Every check prints whether it passed, and the exit status is 1 if any failed.
+ *
+ * Usage: ant check
+ */
+public class SelfCheck {
+	// Size and number of iterations of the checkpointed renders.
+	private static final int WIDTH = 160;
+	private static final int HEIGHT = 120;
+	private static final long ITERATIONS = 400000L;
+
+	private static int failures = 0;
+
+	public static void main(String args[]) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+
+		checkSpill();
+		for (Histogram.Storage storage : Histogram.Storage.values()) {
+			checkHistogramSpill(storage);
+		}
+		ExecutorService workers = Executors.newCachedThreadPool();
+		try {
+			Flame flame = new FlameProbe(1).findGood(42, workers);
+			for (Histogram.Storage storage : Histogram.Storage.values()) {
+				checkCheckpoint(workers, flame, storage);
+			}
+		} finally {
+			workers.shutdown();
+		}
+
+		if (failures > 0) {
+			System.err.println(failures + " checks failed");
+			System.exit(1);
+		}
+		System.err.println("All checks passed");
+	}
+
+	private static void check(String name, String problem) {
+		if (problem == null) {
+			System.err.println("[PASS] " + name);
+		} else {
+			System.err.println("[FAIL] " + name + ": " + problem);
+			failures++;
+		}
+	}
+
+	private static String expect(String what, long expected, long actual) {
+		return expected == actual ? null : what + " is " + actual + " rather than " + expected;
+	}
+
+	/**
+	 * Compact counters must agree with wide ones around and beyond the limit of an int.
+	 */
+	private static void checkSpill() {
+		HitCounts compact = HitCounts.create(4, HitCounts.Width.COMPACT);
+		String problem = null;
+
+		// Increments that cross Integer.MAX_VALUE.
+		compact.set(0, Integer.MAX_VALUE - 2);
+		for (int i = 0; i < 5; i++) {
+			compact.increment(0);
+		}
+		problem = expect("An incremented count", Integer.MAX_VALUE + 3L, compact.get(0));
+
+		// Adds of more than an int can hold, on top of a spilled count.
+		if (problem == null) {
+			compact.add(1, 3L * Integer.MAX_VALUE);
+			compact.add(1, 1000);
+			compact.add(1, Integer.MAX_VALUE);
+			problem = expect("An added count", 4L * Integer.MAX_VALUE + 1000, compact.get(1));
+		}
+
+		// Setting a small count after a spilled one must forget the spilled part.
+		if (problem == null) {
+			compact.set(2, 5L << 32);
+			compact.set(2, 7);
+			compact.increment(2);
+			problem = expect("A count set below the spill", 8, compact.get(2));
+		}
+
+		// Clearing must empty the side table of the cleared cells only.
+		if (problem == null) {
+			compact.set(3, 6L << 32);
+			compact.clear(0, 2);
+			problem = expect("A cleared count", 0, compact.get(0) + compact.get(1));
+			if (problem == null) {
+				problem = expect("A count next to the cleared ones", 6L << 32, compact.get(3));
+			}
+		}
+		check("HitCounts spill", problem);
+
+		// Random adds, increments, sets and clears, compared with wide counters.
+		compact = HitCounts.create(4, HitCounts.Width.COMPACT);
+		HitCounts wide = HitCounts.create(4, HitCounts.Width.WIDE);
+		Random random = new Random(42);
+		problem = null;
+		for (int step = 0; step < 100000 && problem == null; step++) {
+			int i = random.nextInt(4);
+			switch (random.nextInt(8)) {
+			case 0:
+				long hits = (long) (random.nextDouble() * 4 * Integer.MAX_VALUE);
+				compact.set(i, hits);
+				wide.set(i, hits);
+				break;
+			case 1:
+				compact.clear(i, i + 1);
+				wide.clear(i, i + 1);
+				break;
+			case 2:
+			case 3:
+				hits = random.nextInt(Integer.MAX_VALUE);
+				compact.add(i, hits);
+				wide.add(i, hits);
+				break;
+			default:
+				compact.increment(i);
+				wide.increment(i);
+			}
+			problem = expect("After " + (step + 1) + " steps the count of cell " + i, wide.get(i), compact.get(i));
+		}
+		check("HitCounts against wide counters", problem);
+	}
+
+	/**
+	 * A spilled count must survive being written to a checkpoint and read back, and being added to another histogram.
+	 */
+	private static void checkHistogramSpill(Histogram.Storage storage) throws IOException {
+		Histogram histogram = Histogram.create(8, 8, storage, false, false, HitCounts.Width.COMPACT);
+		long hits = 5L * Integer.MAX_VALUE;
+		histogram.set(3, 4, hits, 1, 2, 3);
+		histogram.add(3, 4, 1, 1, 1);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CheckpointOutput out = new CheckpointOutput(Channels.newChannel(bytes));
+		histogram.writeTo(out);
+		out.flush();
+		Histogram read = Histogram.readFrom(new CheckpointInput(Channels.newChannel(
+				new ByteArrayInputStream(bytes.toByteArray()))), storage);
+		String problem = expect("The count read back", hits + 1, read.getCount(3, 4));
+
+		if (problem == null) {
+			Histogram sum = Histogram.create(8, 8, storage, false, false, HitCounts.Width.COMPACT);
+			sum.set(3, 4, Integer.MAX_VALUE - 1, 0, 0, 0);
+			sum.add(read, 0, read.getHeight());
+			problem = expect("The count added", hits + Integer.MAX_VALUE, sum.getCount(3, 4));
+		}
+		check("Histogram spill with " + storage + " storage", problem);
+	}
+
+	/**
+	 * Playing half the iterations, writing a checkpoint, and resuming it for the
+	 * rest must give the histogram of playing all of them in one go.
+	 */
+	private static void checkCheckpoint(ExecutorService workers, Flame flame, Histogram.Storage storage)
+			throws IOException, InterruptedException {
+		Renderer whole = createRenderer(workers, storage);
+		whole.setNumIterations(ITERATIONS);
+		whole.play(flame);
+
+		File file = File.createTempFile("flame", ".checkpoint");
+		file.deleteOnExit();
+		Renderer half = createRenderer(workers, storage);
+		half.setNumIterations(ITERATIONS / 2);
+		half.play(flame);
+		half.saveCheckpoint(flame, file);
+
+		Renderer resumed = new Renderer(workers);
+		resumed.setStorage(storage);
+		Flame loaded = resumed.loadCheckpoint(file);
+		resumed.setNumIterations(ITERATIONS);
+		resumed.play(loaded);
+		file.delete();
+
+		String problem = expect("The number of iterations", whole.getIterationsDone(), resumed.getIterationsDone());
+		if (problem == null) {
+			problem = difference(whole.getHistogram(), resumed.getHistogram());
+		}
+		check("Checkpoint round trip with " + storage + " storage", problem);
+	}
+
+	private static Renderer createRenderer(ExecutorService workers, Histogram.Storage storage) {
+		Renderer renderer = new Renderer(workers);
+		renderer.setSize(WIDTH, HEIGHT);
+		renderer.setSuperSampleSize(2);
+		renderer.setNumThreads(2);
+		renderer.setStorage(storage);
+		return renderer;
+	}
+
+	/**
+	 * The first cell in which the histograms differ, or null if they are the same.
+	 * The color sums may differ in their last bits, as the resumed render adds them up in another order.
+	 */
+	private static String difference(Histogram expected, Histogram actual) {
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				if (expected.getCount(x, y) != actual.getCount(x, y)
+						|| !close(expected.getRed(x, y), actual.getRed(x, y))
+						|| !close(expected.getGreen(x, y), actual.getGreen(x, y))
+						|| !close(expected.getBlue(x, y), actual.getBlue(x, y))) {
+					return String.format("Cell (%d, %d) is %d (%f, %f, %f) rather than %d (%f, %f, %f)", x, y,
+							actual.getCount(x, y), actual.getRed(x, y), actual.getGreen(x, y), actual.getBlue(x, y),
+							expected.getCount(x, y), expected.getRed(x, y), expected.getGreen(x, y), expected.getBlue(x, y));
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean close(double a, double b) {
+		return Math.abs(a - b) <= 1e-9 * Math.max(1, Math.max(Math.abs(a), Math.abs(b)));
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Draws indices with given relative weights in constant time, with Walker's
+ * alias method as set out by Vose.
+ *
+ * The table has a column for every index, each holding a threshold and an
+ * alias. A draw picks a column uniformly and returns the column's own index if
+ * a second uniform number falls below its threshold, or its alias otherwise.
+ * Both numbers are taken from a single call to nextLong, so a draw costs no
+ * more than FastRandom.nextInt, and with equal weights it draws exactly the
+ * same indices as nextInt.
+ */
+public final class AliasTable {
+	// A threshold of 2^32 always keeps the column's own index.
+	private static final long ALWAYS = 1L << 32;
+
+	private final int size;
+	private final long[] threshold;
+	private final int[] alias;
+
+	/**
+	 * @param weights The relative weights of the indices, which must not be negative, with at least one positive.
+	 */
+	public AliasTable(double[] weights) {
+		size = weights.length;
+		double total = 0;
+		for (double weight : weights) {
+			if (!(weight >= 0) || Double.isInfinite(weight)) {
+				throw new IllegalArgumentException("Weights must be finite and not negative");
+			}
+			total += weight;
+		}
+		if (!(total > 0)) {
+			throw new IllegalArgumentException("At least one weight must be positive");
+		}
+
+		threshold = new long[size];
+		alias = new int[size];
+		// Scale the weights so that they average 1, and pair every column that is
+		// short of 1 with a column that has more than 1 to make up the rest.
+		double[] scaled = new double[size];
+		Deque<Integer> small = new ArrayDeque<>();
+		Deque<Integer> large = new ArrayDeque<>();
+		for (int i = 0; i < size; i++) {
+			scaled[i] = weights[i] * size / total;
+			if (scaled[i] < 1) {
+				small.push(i);
+			} else {
+				large.push(i);
+			}
+		}
+		while (!small.isEmpty() && !large.isEmpty()) {
+			int s = small.pop();
+			int l = large.pop();
+			threshold[s] = (long) (scaled[s] * ALWAYS);
+			alias[s] = l;
+			scaled[l] -= 1 - scaled[s];
+			if (scaled[l] < 1) {
+				small.push(l);
+			} else {
+				large.push(l);
+			}
+		}
+		// What is left is 1 up to rounding errors.
+		for (int i : large) {
+			threshold[i] = ALWAYS;
+			alias[i] = i;
+		}
+		for (int i : small) {
+			threshold[i] = ALWAYS;
+			alias[i] = i;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Draw an index.
+	 */
+	public int next(FastRandom rnd) {
+		long bits = rnd.nextLong();
+		int i = (int) (((bits >>> 32) * size) >>> 32);
+		return (bits & 0xffffffffL) < threshold[i] ? i : alias[i];
+	}
+}
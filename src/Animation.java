@@ -0,0 +1,140 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An animation that moves smoothly through a sequence of keyframe flames.
+ *
+ * Between two keyframes the coefficients and post coefficients of the flame
+ * functions, their colors, color indices and weights, and the variation
+ * weights are interpolated, easing in and out of each keyframe. The parameters
+ * of the variations themselves can not be interpolated, so every frame uses
+ * those of the first keyframe.
+ * Time runs from 0 at the first keyframe to 1 at the last one or, for a
+ * looping animation, back at the first one.
+ */
+public class Animation {
+	private final List<Flame> keyframes;
+	private final boolean loop;
+
+	public Animation(List<Flame> keyframes, boolean loop) {
+		if (keyframes.isEmpty()) {
+			throw new IllegalArgumentException("An animation needs at least one keyframe");
+		}
+		int numFunctions = keyframes.get(0).getNumFunctions();
+		for (Flame keyframe : keyframes) {
+			if (keyframe.getNumFunctions() != numFunctions) {
+				throw new IllegalArgumentException("All the keyframes must have the same number of functions");
+			}
+		}
+		this.keyframes = new ArrayList<>(keyframes);
+		this.loop = loop;
+	}
+
+	public boolean isLoop() {
+		return loop;
+	}
+
+	/**
+	 * The time of the given frame of an animation of numFrames frames. A looping
+	 * animation does not repeat the first frame at the end.
+	 */
+	public double getFrameTime(int frame, int numFrames) {
+		if (loop) {
+			return frame / (double) numFrames;
+		}
+		return numFrames > 1 ? frame / (double) (numFrames - 1) : 0;
+	}
+
+	/**
+	 * The flame at the given time. Times outside of [0, 1] wrap around for a
+	 * looping animation, and are clamped otherwise.
+	 */
+	public Flame getFlame(double time) {
+		int n = keyframes.size();
+		int segments = loop ? n : n - 1;
+		if (segments == 0) {
+			return keyframes.get(0);
+		}
+		if (loop) {
+			time -= Math.floor(time);
+		} else {
+			time = Math.max(0, Math.min(time, 1));
+		}
+
+		double position = time * segments;
+		int segment = Math.min((int) position, segments - 1);
+		double u = position - segment;
+		// Ease in and out of the keyframes, so the motion does not jerk at them.
+		u = u * u * (3 - 2 * u);
+
+		Flame a = keyframes.get(segment);
+		Flame b = keyframes.get((segment + 1) % n);
+		double[] weightsA = a.getVariationWeights();
+		double[] weightsB = b.getVariationWeights();
+		double[] weights = new double[weightsA.length];
+		for (int v = 0; v < weights.length; v++) {
+			weights[v] = lerp(weightsA[v], weightsB[v], u);
+		}
+		FlameFunction[] functionsA = a.getFunctions();
+		FlameFunction[] functionsB = b.getFunctions();
+		FlameFunction[] functions = new FlameFunction[functionsA.length];
+		for (int i = 0; i < functions.length; i++) {
+			FlameFunction fa = functionsA[i];
+			FlameFunction fb = functionsB[i];
+			Color color = new Color(
+					(int) Math.round(lerp(fa.color.getRed(), fb.color.getRed(), u)),
+					(int) Math.round(lerp(fa.color.getGreen(), fb.color.getGreen(), u)),
+					(int) Math.round(lerp(fa.color.getBlue(), fb.color.getBlue(), u)));
+			double[] xaos = null;
+			if (fa.xaos != null || fb.xaos != null) {
+				// No transition weights are the same as transition weights of 1.
+				xaos = lerp(xaos(fa, functions.length), xaos(fb, functions.length), u);
+			}
+			functions[i] = new FlameFunction(lerp(fa.coefficients, fb.coefficients, u),
+					lerp(fa.postCoefficients, fb.postCoefficients, u), color, lerp(fa.colorIndex, fb.colorIndex, u),
+					lerp(fa.weight, fb.weight, u), xaos);
+		}
+		return new Flame(keyframes.get(0).getSeed(), weights, functions);
+	}
+
+	private static double[] xaos(FlameFunction f, int numFunctions) {
+		if (f.xaos != null) {
+			return f.xaos;
+		}
+		double[] xaos = new double[numFunctions];
+		Arrays.fill(xaos, 1);
+		return xaos;
+	}
+
+	private static double lerp(double a, double b, double u) {
+		return a + (b - a) * u;
+	}
+
+	private static double[] lerp(double[] a, double[] b, double u) {
+		double[] result = new double[a.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = lerp(a[i], b[i], u);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders an animation between keyframe flames to a sequence of numbered PNG files.
+ *
+ * Several frames are rendered at once, each by its own renderer. The renderers
+ * and their images are kept in a pool and handed from one frame to the next,
+ * so the histograms are allocated once per renderer rather than once per frame.
+ * With motion blur, the chaos games of a number of time samples within each
+ * frame's shutter are accumulated into the frame's histogram before it is
+ * tone mapped once.
+ *
+ * Usage: java -cp FlameFractals.jar AnimationRender [options] frame%04d.png
+ */
+public class AnimationRender {
+
+	private static void usage() {
+		System.err.println("Usage: java -cp FlameFractals.jar AnimationRender [options] frame%04d.png");
+		System.err.println("  -keyframes <list> comma separated seeds of the keyframe flames");
+		System.err.println("  -frames <n>       number of frames (default: 60)");
+		System.err.println("  -loop             animate from the last keyframe back to the first");
+		System.err.println("  -size <w>x<h>     size of the frames in pixels (default: 640x480)");
+		System.err.println("  -supersample <n>  supersample size (default: 3)");
+		System.err.println("  -iterations <n>   number of iterations per frame (default: 1000000)");
+		System.err.println("  -gamma <g>        gamma (default: 2.2)");
+		System.err.println("  -density <r>      smooth sparse parts over up to r supersamples (default: 0, off)");
+		System.err.println("  -filter <f>       filter the supersamples are resolved with: box, tent, gaussian or mitchell (default: box)");
+		System.err.println("  -palette <p>      color by the functions' color indices, looked up in the palette p:");
+		System.err.println("                    flame for one made of the functions' colors, fire, ice or gray");
+		System.err.println("  -zoom <n>         zoom level from 1 to " + Renderer.MAX_ZOOM + " (default: 1)");
+		System.err.println("  -threads <n>      total number of threads (default: number of processors)");
+		System.err.println("  -parallel <n>     number of frames rendered at once (default: the number of threads)");
+		System.err.println("  -blur <n>         time samples per frame for motion blur (default: 1, no blur)");
+		System.err.println("  -shutter <s>      fraction of a frame's time the shutter is open (default: 0.5)");
+		System.err.println("  -single           keep the histograms in single precision");
+		System.err.println("  -wide             count the hits with 64 bit rather than compact 32 bit counters");
+		Histogram.Storage.printOptions();
+		System.exit(1);
+	}
+
+	public static void main(String args[]) throws IOException, InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+
+		List<Flame> keyframes = new ArrayList<>();
+		int numFrames = 60;
+		boolean loop = false;
+		int width = 640;
+		int height = 480;
+		int superSampleSize = 3;
+		long numIterations = 1000000L;
+		double gamma = 2.2;
+		int densityRadius = 0;
+		Downsampler.Filter filter = Downsampler.Filter.BOX;
+		boolean paletteColoring = false;
+		Palette palette = null;
+		int zoom = 1;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		int parallel = 0;
+		int blur = 1;
+		double shutter = 0.5;
+		Histogram.Storage storage = null;
+		boolean singlePrecision = false;
+		HitCounts.Width counters = HitCounts.Width.COMPACT;
+		String output = null;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				Histogram.Storage option = Histogram.Storage.fromOption(args[i]);
+				if (option != null) {
+					storage = option;
+					continue;
+				}
+				switch (args[i]) {
+				case "-keyframes":
+					for (String seed : args[++i].split(",")) {
+						keyframes.add(new Flame(Long.parseLong(seed.trim())));
+					}
+					break;
+				case "-frames":
+					numFrames = Integer.parseInt(args[++i]);
+					break;
+				case "-loop":
+					loop = true;
+					break;
+				case "-size":
+					String[] size = args[++i].split("x");
+					width = Integer.parseInt(size[0]);
+					height = Integer.parseInt(size[1]);
+					break;
+				case "-supersample":
+					superSampleSize = Integer.parseInt(args[++i]);
+					break;
+				case "-iterations":
+					numIterations = (long) Double.parseDouble(args[++i]);
+					break;
+				case "-gamma":
+					gamma = Double.parseDouble(args[++i]);
+					break;
+				case "-density":
+					densityRadius = Integer.parseInt(args[++i]);
+					break;
+				case "-filter":
+					filter = Downsampler.Filter.valueOf(args[++i].toUpperCase());
+					break;
+				case "-palette":
+					paletteColoring = true;
+					String name = args[++i];
+					palette = name.equals("flame") ? null : Palette.named(name);
+					break;
+				case "-zoom":
+					zoom = Integer.parseInt(args[++i]);
+					break;
+				case "-threads":
+					numThreads = Integer.parseInt(args[++i]);
+					break;
+				case "-parallel":
+					parallel = Integer.parseInt(args[++i]);
+					break;
+				case "-blur":
+					blur = Integer.parseInt(args[++i]);
+					break;
+				case "-shutter":
+					shutter = Double.parseDouble(args[++i]);
+					break;
+				case "-single":
+					singlePrecision = true;
+					break;
+				case "-wide":
+					counters = HitCounts.Width.WIDE;
+					break;
+				default:
+					if (args[i].startsWith("-") || output != null) {
+						usage();
+					}
+					output = args[i];
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+		}
+		if (output == null || keyframes.isEmpty() || numFrames < 1 || blur < 1 || numThreads < 1) {
+			usage();
+		}
+		if (parallel < 1) {
+			parallel = numThreads;
+		}
+		parallel = Math.min(parallel, numFrames);
+
+		final Animation animation = new Animation(keyframes, loop);
+		System.out.println("[INIT] Rendering " + numFrames + " frames between " + keyframes.size() + " keyframes to " + output);
+
+		ExecutorService workers = Executors.newCachedThreadPool();
+		ExecutorService frames = Executors.newFixedThreadPool(parallel);
+		try {
+			// The renderers and images that frames are rendered with, one per frame being rendered.
+			final BlockingQueue<Renderer> renderers = new ArrayBlockingQueue<>(parallel);
+			for (int i = 0; i < parallel; i++) {
+				Renderer renderer = new Renderer(workers);
+				renderer.setSize(width, height);
+				renderer.setSuperSampleSize(superSampleSize);
+				renderer.setGamma(gamma);
+				renderer.setDensityRadius(densityRadius);
+				renderer.setFilter(filter);
+				renderer.setPaletteColoring(paletteColoring);
+				renderer.setPalette(palette);
+				renderer.setZoom(zoom);
+				// Share the threads out between the frames being rendered at once.
+				renderer.setNumThreads(Math.max(numThreads / parallel, 1));
+				renderer.setStorage(storage);
+				renderer.setSinglePrecision(singlePrecision);
+				renderer.setCounters(counters);
+				renderers.add(renderer);
+			}
+			final BlockingQueue<BufferedImage> images = new ArrayBlockingQueue<>(parallel);
+			for (int i = 0; i < parallel; i++) {
+				images.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+			}
+
+			List<Future<Void>> futures = new ArrayList<>(numFrames);
+			final AtomicInteger done = new AtomicInteger();
+			for (int f = 0; f < numFrames; f++) {
+				futures.add(frames.submit(new FrameTask(animation, renderers, images, f, numFrames,
+						numIterations, blur, shutter, new File(String.format(output, f)), done)));
+			}
+			try {
+				for (Future<Void> future : futures) {
+					future.get();
+				}
+			} catch (ExecutionException e) {
+				throw new IOException("Could not render a frame", e.getCause());
+			}
+			System.out.println("[DONE] Rendered " + numFrames + " frames");
+		} finally {
+			frames.shutdownNow();
+			workers.shutdown();
+		}
+	}
+
+	/**
+	 * Renders a single frame with a renderer and an image borrowed from the pools.
+	 */
+	private static class FrameTask implements Callable<Void> {
+		private final Animation animation;
+		private final BlockingQueue<Renderer> renderers;
+		private final BlockingQueue<BufferedImage> images;
+		private final int frame;
+		private final int numFrames;
+		private final long numIterations;
+		private final int blur;
+		private final double shutter;
+		private final File file;
+		private final AtomicInteger done;
+
+		public FrameTask(Animation animation, BlockingQueue<Renderer> renderers, BlockingQueue<BufferedImage> images,
+				int frame, int numFrames, long numIterations, int blur, double shutter, File file, AtomicInteger done) {
+			this.animation = animation;
+			this.renderers = renderers;
+			this.images = images;
+			this.frame = frame;
+			this.numFrames = numFrames;
+			this.numIterations = numIterations;
+			this.blur = blur;
+			this.shutter = shutter;
+			this.file = file;
+			this.done = done;
+		}
+
+		@Override
+		public Void call() throws IOException, InterruptedException {
+			Renderer renderer = renderers.take();
+			BufferedImage image = images.take();
+			try {
+				double time = animation.getFrameTime(frame, numFrames);
+				// The length of a frame in animation time.
+				double frameLength = animation.isLoop() ? 1.0 / numFrames : 1.0 / Math.max(numFrames - 1, 1);
+				for (int s = 0; s < blur; s++) {
+					// Spread the samples evenly over the shutter, centred on the frame's time.
+					double offset = blur > 1 ? ((s + 0.5) / blur - 0.5) * shutter * frameLength : 0;
+					long iterations = numIterations / blur + (s < numIterations % blur ? 1 : 0);
+					renderer.accumulate(animation.getFlame(time + offset), iterations, s == 0);
+				}
+				renderer.getHistogram().setPalette(renderer.getPalette(animation.getFlame(time)));
+				renderer.toneMap(renderer.getHistogram(), image);
+				ImageIO.write(image, "png", file);
+			} finally {
+				images.add(image);
+				renderers.add(renderer);
+			}
+			System.out.println("[FRAME] " + file + " (" + done.incrementAndGet() + "/" + numFrames + ")");
+			return null;
+		}
+	}
+}
@@ -0,0 +1,355 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders a single flame to a PNG file from the command line, without a GUI.
+ *
+ * Usage: java -cp FlameFractals.jar BatchRender [options] output.png
+ */
+public class BatchRender {
+	// How often to sample the progress of the render, in milliseconds.
+	private static final long PROGRESS_INTERVAL = 250;
+
+	// The exit status of a render that was given up on, as hardly any of its points were in view.
+	private static final int HOPELESS_STATUS = 2;
+
+	private static void usage() {
+		System.err.println("Usage: java -cp FlameFractals.jar BatchRender [options] output.png");
+		System.err.println("  -seed <n>         seed of the flame (default: current time)");
+		System.err.println("  -size <w>x<h>     size of the image in pixels (default: 1024x768)");
+		System.err.println("  -supersample <n>  supersample size (default: 3)");
+		System.err.println("  -iterations <n>   number of iterations (default: 100000)");
+		System.err.println("  -gamma <g>        gamma (default: 2.2)");
+		System.err.println("  -density <r>      smooth sparse parts over up to r supersamples (default: 0, off)");
+		System.err.println("  -filter <f>       filter the supersamples are resolved with: box, tent, gaussian or mitchell (default: box)");
+		System.err.println("  -palette <p>      color by the functions' color indices, looked up in the palette p:");
+		System.err.println("                    flame for one made of the functions' colors, fire, ice or gray");
+		System.err.println("  -weights <list>   comma separated weights the flame functions are chosen with (default: all 1)");
+		System.err.println("  -xaos <rows>      transition weights from each function to each function, as comma");
+		System.err.println("                    separated rows separated by semicolons (default: none)");
+		System.err.println("  -zoom <n>         zoom level from 1 to " + Renderer.MAX_ZOOM + " (default: 1)");
+		System.err.println("  -threads <n>      number of threads (default: number of processors)");
+		System.err.println("  -single           keep the histogram in single precision");
+		System.err.println("  -wide             count the hits with 64 bit rather than compact 32 bit counters");
+		Histogram.Storage.printOptions();
+		System.err.println("  -checkpoint <f>   write checkpoints to the file periodically, when stopped and when done");
+		System.err.println("  -interval <s>     seconds between checkpoints (default: 300)");
+		System.err.println("  -resume <f>       continue the render in the checkpoint file, keeping its settings");
+		System.err.println("                    other than -iterations, -gamma and the palette");
+		System.err.println("  -workers <list>   play the chaos game on RenderWorker processes, given as");
+		System.err.println("                    comma separated host:port addresses");
+		System.err.println("  -chunk <n>        iterations per chunk sent to a worker (default: a quarter");
+		System.err.println("                    of each worker's share)");
+		System.exit(1);
+	}
+
+	static double[] parseList(String list) {
+		String[] values = list.split(",");
+		double[] result = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = Double.parseDouble(values[i].trim());
+		}
+		return result;
+	}
+
+	public static void main(String args[]) throws IOException, InterruptedException {
+		// Never try to connect to a display.
+		System.setProperty("java.awt.headless", "true");
+
+		long seed = System.currentTimeMillis();
+		int width = 1024;
+		int height = 768;
+		int superSampleSize = 3;
+		long numIterations = 100000L;
+		double gamma = 2.2;
+		int densityRadius = 0;
+		Downsampler.Filter filter = Downsampler.Filter.BOX;
+		boolean paletteColoring = false;
+		Palette palette = null;
+		double[] functionWeights = null;
+		double[][] xaos = null;
+		int zoom = 1;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		Histogram.Storage storage = null;
+		boolean singlePrecision = false;
+		HitCounts.Width counters = HitCounts.Width.COMPACT;
+		File checkpoint = null;
+		long interval = 300;
+		File resume = null;
+		boolean iterationsSet = false;
+		boolean gammaSet = false;
+		List<InetSocketAddress> addresses = new ArrayList<>();
+		long chunkSize = 0;
+		File output = null;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				Histogram.Storage option = Histogram.Storage.fromOption(args[i]);
+				if (option != null) {
+					storage = option;
+					continue;
+				}
+				switch (args[i]) {
+				case "-seed":
+					seed = Long.parseLong(args[++i]);
+					break;
+				case "-size":
+					String[] size = args[++i].split("x");
+					width = Integer.parseInt(size[0]);
+					height = Integer.parseInt(size[1]);
+					break;
+				case "-supersample":
+					superSampleSize = Integer.parseInt(args[++i]);
+					break;
+				case "-iterations":
+					numIterations = (long) Double.parseDouble(args[++i]);
+					iterationsSet = true;
+					break;
+				case "-gamma":
+					gamma = Double.parseDouble(args[++i]);
+					gammaSet = true;
+					break;
+				case "-density":
+					densityRadius = Integer.parseInt(args[++i]);
+					break;
+				case "-filter":
+					filter = Downsampler.Filter.valueOf(args[++i].toUpperCase());
+					break;
+				case "-palette":
+					paletteColoring = true;
+					String name = args[++i];
+					palette = name.equals("flame") ? null : Palette.named(name);
+					break;
+				case "-weights":
+					functionWeights = parseList(args[++i]);
+					break;
+				case "-xaos":
+					String[] rows = args[++i].split(";");
+					xaos = new double[rows.length][];
+					for (int r = 0; r < rows.length; r++) {
+						xaos[r] = parseList(rows[r]);
+					}
+					break;
+				case "-zoom":
+					zoom = Integer.parseInt(args[++i]);
+					break;
+				case "-threads":
+					numThreads = Integer.parseInt(args[++i]);
+					break;
+				case "-single":
+					singlePrecision = true;
+					break;
+				case "-wide":
+					counters = HitCounts.Width.WIDE;
+					break;
+				case "-checkpoint":
+					checkpoint = new File(args[++i]);
+					break;
+				case "-interval":
+					interval = Long.parseLong(args[++i]);
+					break;
+				case "-resume":
+					resume = new File(args[++i]);
+					break;
+				case "-workers":
+					for (String address : args[++i].split(",")) {
+						int colon = address.lastIndexOf(':');
+						addresses.add(colon < 0 ? new InetSocketAddress(address, RenderWorker.DEFAULT_PORT)
+								: new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+					}
+					break;
+				case "-chunk":
+					chunkSize = (long) Double.parseDouble(args[++i]);
+					break;
+				default:
+					if (args[i].startsWith("-") || output != null) {
+						usage();
+					}
+					output = new File(args[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+		}
+		if (output == null) {
+			usage();
+		}
+		if (!addresses.isEmpty() && (checkpoint != null || resume != null)) {
+			// The state of a distributed render lives in the workers.
+			System.err.println("Checkpoints are not supported with -workers");
+			usage();
+		}
+
+		// The number of threads may come from a checkpoint, so let the pool grow to it.
+		ExecutorService workers = Executors.newCachedThreadPool();
+		ScheduledExecutorService sampling = Executors.newSingleThreadScheduledExecutor();
+		boolean hopeless = false;
+		Thread shutdownHook = null;
+		try {
+			Renderer renderer = new Renderer(workers);
+			renderer.setSize(width, height);
+			renderer.setSuperSampleSize(superSampleSize);
+			renderer.setNumIterations(numIterations);
+			renderer.setGamma(gamma);
+			renderer.setDensityRadius(densityRadius);
+			renderer.setFilter(filter);
+			renderer.setPaletteColoring(paletteColoring);
+			renderer.setPalette(palette);
+			renderer.setZoom(zoom);
+			renderer.setNumThreads(numThreads);
+			renderer.setStorage(storage);
+			renderer.setSinglePrecision(singlePrecision);
+			renderer.setCounters(counters);
+			ProgressListener listener = new ProgressListener() {
+				private int last = -1;
+
+				// Called both by the renderer and by the sampler.
+				@Override
+				public synchronized void progress(int value) {
+					// Report every ten percent.
+					if (value / 100 != last) {
+						last = value / 100;
+						System.out.println("[RENDER] " + (value / 10) + "%");
+					}
+				}
+
+				@Override
+				public void status(String message) {
+				}
+			};
+			renderer.setProgressListener(listener);
+			final ProgressSampler sampler = new ProgressSampler(renderer, listener);
+			sampling.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					sampler.sample();
+				}
+			}, PROGRESS_INTERVAL, PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+
+			Flame flame;
+			if (resume != null) {
+				flame = renderer.loadCheckpoint(resume);
+				if (iterationsSet) {
+					renderer.setNumIterations(numIterations);
+				}
+				if (gammaSet) {
+					renderer.setGamma(gamma);
+				}
+				System.out.println("[INIT] Resuming seed " + flame.getSeed() + " from " + renderer.getIterationsDone()
+						+ " iterations to " + output);
+			} else {
+				flame = new Flame(seed);
+				int n = flame.getNumFunctions();
+				if ((functionWeights != null && functionWeights.length != n) || (xaos != null && xaos.length != n)) {
+					System.err.println("The flame has " + n + " functions");
+					usage();
+				}
+				try {
+					for (int f = 0; f < n; f++) {
+						if (functionWeights != null) {
+							flame.setFunctionWeight(f, functionWeights[f]);
+						}
+						if (xaos != null) {
+							flame.setXaos(f, xaos[f]);
+						}
+					}
+				} catch (IllegalArgumentException e) {
+					System.err.println(e.getMessage());
+					usage();
+				}
+				System.out.println("[INIT] Rendering seed " + seed + " to " + output);
+			}
+
+			if (checkpoint != null) {
+				renderer.setCheckpoint(checkpoint, interval * 1000);
+				// On Ctrl-C interrupt the render, which writes a checkpoint, and wait for it.
+				final Thread main = Thread.currentThread();
+				shutdownHook = new Thread() {
+					@Override
+					public void run() {
+						main.interrupt();
+						try {
+							main.join();
+						} catch (InterruptedException e) {
+						}
+					}
+				};
+				Runtime.getRuntime().addShutdownHook(shutdownHook);
+			}
+
+			BufferedImage image = new BufferedImage(renderer.getWidth(), renderer.getHeight(), BufferedImage.TYPE_INT_RGB);
+			long count;
+			String hopelessReason;
+			try {
+				if (addresses.isEmpty()) {
+					count = renderer.render(flame, image, true);
+					hopelessReason = renderer.getHopelessReason();
+				} else {
+					RenderCoordinator coordinator = new RenderCoordinator(addresses);
+					coordinator.setChunkSize(chunkSize);
+					coordinator.setProgressListener(listener);
+					count = coordinator.render(flame, renderer, image);
+					hopelessReason = coordinator.getHopelessReason();
+				}
+			} catch (InterruptedException e) {
+				if (checkpoint != null) {
+					System.out.println("[STOPPED] Saved " + renderer.getIterationsDone() + " iterations to " + checkpoint);
+				}
+				return;
+			}
+			if (hopelessReason != null) {
+				// Rather than leave a nearly black image behind, fail the render.
+				System.out.println("[HOPELESS] " + hopelessReason);
+				hopeless = true;
+				return;
+			}
+			ImageIO.write(image, "png", output);
+			if (checkpoint != null) {
+				renderer.saveCheckpoint(flame, checkpoint);
+			}
+			if (addresses.isEmpty()) {
+				System.out.println(String.format("[STATS] %.2f%% of the points in view, %d diverged, %d out of view",
+						renderer.getHitRate() * 100, renderer.getBadPoints(), renderer.getPointsOutOfView()));
+			}
+			System.out.println("[DONE] Rendered " + count + " pixels");
+		} finally {
+			workers.shutdown();
+			sampling.shutdownNow();
+			if (hopeless) {
+				// The hook waits for this thread, which would never return from exit.
+				if (shutdownHook != null) {
+					Runtime.getRuntime().removeShutdownHook(shutdownHook);
+				}
+				System.exit(HOPELESS_STATUS);
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the values of a checkpoint written by a CheckpointOutput from a
+ * channel, through a small direct buffer.
+ */
+public class CheckpointInput {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	public CheckpointInput(ReadableByteChannel channel) {
+		this.channel = channel;
+		buffer.flip();
+	}
+
+	/**
+	 * Make sure the given number of bytes are in the buffer, reading more from the channel if needed.
+	 */
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) {
+			return;
+		}
+		buffer.compact();
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("The checkpoint is truncated");
+			}
+		}
+		buffer.flip();
+	}
+
+	public boolean getBoolean() throws IOException {
+		ensure(1);
+		return buffer.get() != 0;
+	}
+
+	public int getInt() throws IOException {
+		ensure(4);
+		return buffer.getInt();
+	}
+
+	public long getLong() throws IOException {
+		ensure(8);
+		return buffer.getLong();
+	}
+
+	public float getFloat() throws IOException {
+		ensure(4);
+		return buffer.getFloat();
+	}
+
+	public double getDouble() throws IOException {
+		ensure(8);
+		return buffer.getDouble();
+	}
+}
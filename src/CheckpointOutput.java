@@ -0,0 +1,87 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes the values of a checkpoint to a channel through a small direct
+ * buffer, so that large histograms are streamed to the file cell by cell
+ * rather than copied into an array first. Values are written big-endian.
+ * The same format is used for the messages between a RenderCoordinator and its workers.
+ */
+public class CheckpointOutput {
+	// Identifies checkpoint files, and is repeated at the end to detect truncated files.
+	public static final long MAGIC = 0x464c414d45434b50L; // "FLAMECKP"
+	public static final int VERSION = 8;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	public CheckpointOutput(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Make room in the buffer for the given number of bytes, writing it out if needed.
+	 */
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write everything buffered so far to the channel.
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	public void putBoolean(boolean value) throws IOException {
+		ensure(1);
+		buffer.put((byte) (value ? 1 : 0));
+	}
+
+	public void putInt(int value) throws IOException {
+		ensure(4);
+		buffer.putInt(value);
+	}
+
+	public void putLong(long value) throws IOException {
+		ensure(8);
+		buffer.putLong(value);
+	}
+
+	public void putFloat(float value) throws IOException {
+		ensure(4);
+		buffer.putFloat(value);
+	}
+
+	public void putDouble(double value) throws IOException {
+		ensure(8);
+		buffer.putDouble(value);
+	}
+}
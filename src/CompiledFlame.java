@@ -0,0 +1,160 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * An immutable snapshot of a flame in the form the chaos game needs it:
+ * only the variations with a non-zero weight, packed into dense arrays, and the alias tables the functions are chosen with.
+ *
+ * A flame recompiles itself whenever its variations or weights change, so
+ * a render can take a snapshot once and iterate it without further checks.
+ */
+public class CompiledFlame {
+	private final Variation[] variations;
+	private final double[] weights;
+	private final FlameFunction[] functions;
+
+	// The table to choose the next function with after each function, preceded
+	// by the table for a point that has had no function applied yet. Without
+	// transition weights these are all the same table.
+	private final AliasTable[] tables;
+
+	// Which of the derived inputs the active variations read.
+	private final boolean needsR;
+	private final boolean needsTheta;
+	private final boolean needsPhi;
+
+	public CompiledFlame(Variation[] allVariations, double[] allWeights, FlameFunction[] functions) {
+		int active = 0;
+		for (int v = 0; v < allVariations.length; v++) {
+			if (Double.compare(allWeights[v], 0) != 0) {
+				active++;
+			}
+		}
+		variations = new Variation[active];
+		weights = new double[active];
+		int inputs = Variation.NONE;
+		for (int v = 0, i = 0; v < allVariations.length; v++) {
+			if (Double.compare(allWeights[v], 0) != 0) {
+				variations[i] = allVariations[v];
+				weights[i] = allWeights[v];
+				inputs |= variations[i].getInputs();
+				i++;
+			}
+		}
+		needsR = (inputs & Variation.R) != 0;
+		needsTheta = (inputs & Variation.THETA) != 0;
+		needsPhi = (inputs & Variation.PHI) != 0;
+		this.functions = functions.clone();
+		tables = compileTables(this.functions);
+	}
+
+	private static AliasTable[] compileTables(FlameFunction[] functions) {
+		int n = functions.length;
+		double[] weights = new double[n];
+		for (int j = 0; j < n; j++) {
+			weights[j] = functions[j].weight;
+		}
+		AliasTable[] tables = new AliasTable[n + 1];
+		tables[0] = new AliasTable(weights);
+		for (int i = 0; i < n; i++) {
+			double[] xaos = functions[i].xaos;
+			if (xaos == null) {
+				tables[i + 1] = tables[0];
+				continue;
+			}
+			if (xaos.length != n) {
+				throw new IllegalArgumentException("Function " + i + " has " + xaos.length
+						+ " transition weights rather than " + n);
+			}
+			double[] row = new double[n];
+			double total = 0;
+			for (int j = 0; j < n; j++) {
+				row[j] = weights[j] * xaos[j];
+				total += row[j];
+			}
+			// A function that leads to no other function falls back on the plain weights.
+			tables[i + 1] = total > 0 ? new AliasTable(row) : tables[0];
+		}
+		return tables;
+	}
+
+	public int getNumFunctions() {
+		return functions.length;
+	}
+
+	public FlameFunction[] getFunctions() {
+		return functions;
+	}
+
+	/**
+	 * Choose the function to apply next to a point.
+	 *
+	 * @param previous The function applied to the point last, or -1 for a new point.
+	 */
+	public int nextFunction(int previous, FastRandom rnd) {
+		return tables[previous + 1].next(rnd);
+	}
+
+	/**
+	 * The number of variations with a non-zero weight.
+	 */
+	public int getNumActiveVariations() {
+		return variations.length;
+	}
+
+	/**
+	 * Apply the flame function, the weighted sum of the active variations and
+	 * the post transform to the point p, using newp as scratch space.
+	 *
+	 * Points are played one at a time. Advancing batches of points with one
+	 * array per coordinate gave 0.9 to 1.1 times the throughput, as Java 7 has
+	 * no vector API and the variations dominate, so there is no batched mode.
+	 */
+	public void applyAll(FlameFunction f, double[] p, double[] newp, FastRandom rnd) {
+		double[] c = f.coefficients;
+		newp[0] = c[0] * p[0] + c[1] * p[1] + c[2];
+		newp[1] = c[3] * p[0] + c[4] * p[1] + c[5];
+		p[0] = newp[0];
+		p[1] = newp[1];
+
+		// Apply all the active variations with their respective weights.
+		if (variations.length > 0) {
+			// Only compute the derived inputs some variation reads.
+			double r = needsR ? Math.sqrt(p[0] * p[0] + p[1] * p[1]) : 0;
+			double theta = needsTheta ? Math.atan(p[0] / p[1]) : 0;
+			double phi = needsPhi ? Math.atan(p[1] / p[0]) : 0;
+
+			double x = 0;
+			double y = 0;
+			for (int v = 0; v < variations.length; v++) {
+				variations[v].apply(p, newp, c, r, theta, phi, rnd);
+				x += newp[0] * weights[v];
+				y += newp[1] * weights[v];
+			}
+			p[0] = x;
+			p[1] = y;
+		}
+
+		// Post transform.
+		double[] pc = f.postCoefficients;
+		newp[0] = pc[0] * p[0] + pc[1] * p[1] + pc[2];
+		newp[1] = pc[3] * p[0] + pc[4] * p[1] + pc[5];
+		p[0] = newp[0];
+		p[1] = newp[1];
+	}
+}
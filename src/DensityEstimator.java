@@ -0,0 +1,206 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Estimates the density of hits around each cell of a histogram with an adaptive box filter.
+ *
+ * Where the cell itself has plenty of hits it is left as it is, but elsewhere
+ * the box around it is grown until it holds enough hits or reaches the maximum
+ * radius, and the cell takes the average density and color of the box. Sparse
+ * parts of the flame are smoothed out rather than drawn as scattered specks,
+ * while dense parts stay sharp.
+ *
+ * The hits and colors are kept in summed-area tables, so any box is summed
+ * in constant time. The tables only cover a band of rows at a time, plus the
+ * radius above and below it, and are reused from one band to the next.
+ * An estimator is not thread safe, so every thread needs its own.
+ */
+public class DensityEstimator {
+	// The box around a cell is grown until it holds at least this many hits.
+	public static final int SAMPLES = 16;
+
+	private final int radius;
+
+	// The summed-area tables, each with an extra row and column of zeros at the start.
+	private long[] hits;
+	private double[] red;
+	private double[] green;
+	private double[] blue;
+
+	// The histogram and rows the tables cover, and the width of a row of the tables.
+	private Histogram histogram;
+	private int fromY;
+	private int toY;
+	private int stride;
+
+	// The density and color of the last cell estimated.
+	private double density;
+	private double r;
+	private double g;
+	private double b;
+
+	/**
+	 * @param radius The largest distance from a cell, in cells, that its box is grown to.
+	 */
+	public DensityEstimator(int radius) {
+		if (radius < 1) {
+			throw new IllegalArgumentException("The radius must be at least 1");
+		}
+		this.radius = radius;
+	}
+
+	public int getRadius() {
+		return radius;
+	}
+
+	/**
+	 * Sum up the rows of the histogram needed to estimate the cells of the rows [fromRow, toRow).
+	 */
+	public void prepare(Histogram histogram, int fromRow, int toRow) {
+		int w = histogram.getWidth();
+		this.histogram = histogram;
+		fromY = Math.max(fromRow - radius, 0);
+		toY = Math.min(toRow + radius, histogram.getHeight());
+		stride = w + 1;
+		int size = (toY - fromY + 1) * stride;
+		if (hits == null || hits.length < size) {
+			hits = new long[size];
+			red = new double[size];
+			green = new double[size];
+			blue = new double[size];
+		}
+
+		// Each entry holds the sum of all the cells above and to the left of it.
+		for (int y = fromY; y < toY; y++) {
+			int above = (y - fromY) * stride;
+			int i = above + stride;
+			long rowHits = 0;
+			double rowRed = 0, rowGreen = 0, rowBlue = 0;
+			hits[i] = 0;
+			red[i] = 0;
+			green[i] = 0;
+			blue[i] = 0;
+			for (int x = 0; x < w; x++) {
+				long n = histogram.getCount(x, y);
+				if (n != 0) {
+					rowHits += n;
+					rowRed += histogram.getRed(x, y);
+					rowGreen += histogram.getGreen(x, y);
+					rowBlue += histogram.getBlue(x, y);
+				}
+				hits[i + x + 1] = hits[above + x + 1] + rowHits;
+				red[i + x + 1] = red[above + x + 1] + rowRed;
+				green[i + x + 1] = green[above + x + 1] + rowGreen;
+				blue[i + x + 1] = blue[above + x + 1] + rowBlue;
+			}
+		}
+	}
+
+	/**
+	 * The number of hits in the box of the given radius around a cell, clipped to the histogram.
+	 */
+	private long boxHits(int x, int y, int radius) {
+		int x0 = Math.max(x - radius, 0);
+		int x1 = Math.min(x + radius + 1, stride - 1);
+		int top = (Math.max(y - radius, fromY) - fromY) * stride;
+		int bottom = (Math.min(y + radius + 1, toY) - fromY) * stride;
+		return hits[bottom + x1] - hits[bottom + x0] - hits[top + x1] + hits[top + x0];
+	}
+
+	/**
+	 * The number of cells in the box of the given radius around a cell, clipped to the histogram.
+	 */
+	private int boxArea(int x, int y, int radius) {
+		return (Math.min(x + radius + 1, stride - 1) - Math.max(x - radius, 0))
+				* (Math.min(y + radius + 1, toY) - Math.max(y - radius, fromY));
+	}
+
+	/**
+	 * Estimate the density and color of a cell in the prepared rows, which are
+	 * then returned by getDensity, getRed, getGreen and getBlue.
+	 *
+	 * @return Whether there are any hits around the cell.
+	 */
+	public boolean estimate(int x, int y) {
+		long n = histogram.getCount(x, y);
+		if (n >= SAMPLES) {
+			density = n;
+			r = histogram.getRed(x, y) / n;
+			g = histogram.getGreen(x, y) / n;
+			b = histogram.getBlue(x, y) / n;
+			return true;
+		}
+
+		// Find the smallest box that holds enough hits. The hits only grow with the radius.
+		long total = boxHits(x, y, radius);
+		if (total == 0) {
+			return false;
+		}
+		int low = radius;
+		if (total >= SAMPLES) {
+			int high = radius;
+			low = 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				long count = boxHits(x, y, mid);
+				if (count >= SAMPLES) {
+					high = mid;
+					total = count;
+				} else {
+					low = mid + 1;
+				}
+			}
+		}
+		// Average the densities of the box and of one half its size, which gives a
+		// pyramid shaped kernel rather than a flat one, so that a lone hit is spread
+		// into a soft blob rather than a square.
+		int half = low / 2;
+		density = (total / (double) boxArea(x, y, low) + boxHits(x, y, half) / (double) boxArea(x, y, half)) / 2;
+
+		int x0 = Math.max(x - low, 0);
+		int x1 = Math.min(x + low + 1, stride - 1);
+		int top = (Math.max(y - low, fromY) - fromY) * stride;
+		int bottom = (Math.min(y + low + 1, toY) - fromY) * stride;
+		r = (red[bottom + x1] - red[bottom + x0] - red[top + x1] + red[top + x0]) / total;
+		g = (green[bottom + x1] - green[bottom + x0] - green[top + x1] + green[top + x0]) / total;
+		b = (blue[bottom + x1] - blue[bottom + x0] - blue[top + x1] + blue[top + x0]) / total;
+		return true;
+	}
+
+	/**
+	 * The average number of hits per cell around the last cell estimated.
+	 */
+	public double getDensity() {
+		return density;
+	}
+
+	/**
+	 * The average color of the hits around the last cell estimated.
+	 */
+	public double getRed() {
+		return r;
+	}
+
+	public double getGreen() {
+		return g;
+	}
+
+	public double getBlue() {
+		return b;
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Resolves the supersamples of a histogram into pixels with a filter kernel.
+ *
+ * The kernel is applied as two separable passes: each row of supersamples is
+ * first filtered horizontally into a row of pixel columns, and the filtered
+ * rows are then combined vertically into rows of pixels. As the supersample
+ * size is a whole number, every pixel uses the same weights, which are
+ * computed once. Besides the colors, the passes filter a coverage channel that
+ * is 1 for the supersamples with hits and 0 for the others. The colors are
+ * divided by it at the end, so that empty supersamples, and supersamples off
+ * the edge of the histogram, do not darken the pixels around them.
+ *
+ * A downsampler keeps the filtered rows of one band of pixel rows at a time,
+ * and reuses its buffers from one band to the next. It is not thread safe,
+ * so every thread needs its own.
+ */
+public class Downsampler {
+
+	/**
+	 * The filter kernels, with their radius in pixels.
+	 */
+	public enum Filter {
+		// Averages the supersamples of each pixel, like plain supersampling.
+		BOX(0.5),
+		// Blends linearly into the neighboring pixels.
+		TENT(1),
+		// A Gaussian with a standard deviation of half a pixel.
+		GAUSSIAN(1.5),
+		// The Mitchell-Netravali cubic with B = C = 1/3, which is sharper than the Gaussian.
+		MITCHELL(2);
+
+		private final double radius;
+
+		private Filter(double radius) {
+			this.radius = radius;
+		}
+
+		/**
+		 * The weight of a supersample at the given distance in pixels from the center of a pixel.
+		 */
+		public double weight(double x) {
+			x = Math.abs(x);
+			switch (this) {
+			case BOX:
+				return x < 0.5 ? 1 : 0;
+			case TENT:
+				return Math.max(1 - x, 0);
+			case GAUSSIAN:
+				return x < radius ? Math.exp(-2 * x * x) : 0;
+			case MITCHELL:
+				double b = 1 / 3.0;
+				double c = 1 / 3.0;
+				if (x < 1) {
+					return ((12 - 9 * b - 6 * c) * x * x * x + (-18 + 12 * b + 6 * c) * x * x + (6 - 2 * b)) / 6;
+				} else if (x < 2) {
+					return ((-b - 6 * c) * x * x * x + (6 * b + 30 * c) * x * x + (-12 * b - 48 * c) * x + (8 * b + 24 * c)) / 6;
+				}
+				return 0;
+			default:
+				throw new AssertionError(this);
+			}
+		}
+	}
+
+	private final int superSampleSize;
+	private final int cells;
+	private final int width;
+
+	// The weights of the supersamples px * superSampleSize + first + t of pixel px.
+	private final int first;
+	private final float[] weights;
+
+	// A row of supersamples, to be filled in before filtering it. It is emptied again by filtering it.
+	final float[] red, green, blue, coverage;
+
+	// The horizontally filtered supersample rows [fromCell, toCell), one row of pixel columns each,
+	// and the range of pixel columns of each row that have any hits, outside of which the row is empty.
+	private float[] filteredRed, filteredGreen, filteredBlue, filteredCoverage;
+	private int[] fromPixel, toPixel;
+	private int fromCell;
+	private int toCell;
+
+	// A resolved row of pixels, before dividing by the coverage.
+	final float[] pixelRed, pixelGreen, pixelBlue, pixelCoverage;
+
+	/**
+	 * @param cells The number of supersamples in a row of the histogram.
+	 * @param width The number of pixels in a row of the image.
+	 */
+	public Downsampler(Filter filter, int superSampleSize, int cells, int width) {
+		this.superSampleSize = superSampleSize;
+		this.cells = cells;
+		this.width = width;
+
+		// Supersample t of a pixel, counted from its first one, has its center at
+		// (t + 0.5) / superSampleSize pixels, while the pixel's center is at 0.5.
+		first = (int) Math.ceil((0.5 - filter.radius) * superSampleSize - 0.5);
+		int last = (int) Math.floor((0.5 + filter.radius) * superSampleSize - 0.5);
+		weights = new float[last - first + 1];
+		for (int t = first; t <= last; t++) {
+			weights[t - first] = (float) filter.weight((t + 0.5) / superSampleSize - 0.5);
+		}
+
+		red = new float[cells];
+		green = new float[cells];
+		blue = new float[cells];
+		coverage = new float[cells];
+		pixelRed = new float[width];
+		pixelGreen = new float[width];
+		pixelBlue = new float[width];
+		pixelCoverage = new float[width];
+	}
+
+	/**
+	 * The first row of supersamples the given row of pixels uses. It may be off the histogram.
+	 */
+	public int getFirstCell(int pixel) {
+		return pixel * superSampleSize + first;
+	}
+
+	/**
+	 * The row after the last row of supersamples the given row of pixels uses. It may be off the histogram.
+	 */
+	public int getEndCell(int pixel) {
+		return pixel * superSampleSize + first + weights.length;
+	}
+
+	/**
+	 * Start filtering the supersample rows [fromCell, toCell).
+	 */
+	public void startBand(int fromCell, int toCell) {
+		this.fromCell = fromCell;
+		this.toCell = toCell;
+		int size = (toCell - fromCell) * width;
+		if (filteredRed == null || filteredRed.length < size) {
+			filteredRed = new float[size];
+			filteredGreen = new float[size];
+			filteredBlue = new float[size];
+			filteredCoverage = new float[size];
+		}
+		if (fromPixel == null || fromPixel.length < toCell - fromCell) {
+			fromPixel = new int[toCell - fromCell];
+			toPixel = new int[toCell - fromCell];
+		}
+	}
+
+	private static int floorDiv(int a, int b) {
+		return a >= 0 ? a / b : -((b - 1 - a) / b);
+	}
+
+	/**
+	 * Filter the row of supersamples that has been filled in as the given row of
+	 * the band, and empty it for the next row. Only the supersamples [fromX, toX)
+	 * of the row may have been filled in.
+	 */
+	public void filterRow(int cell, int fromX, int toX) {
+		int row = cell - fromCell;
+		int taps = weights.length;
+		// The pixels whose supersamples overlap [fromX, toX).
+		int from = Math.max(floorDiv(fromX - taps - first, superSampleSize) + 1, 0);
+		int to = Math.min(floorDiv(toX - 1 - first, superSampleSize) + 1, width);
+		fromPixel[row] = from;
+		toPixel[row] = Math.max(to, from);
+
+		int offset = row * width;
+		for (int px = from; px < to; px++) {
+			int x0 = px * superSampleSize + first;
+			float r = 0, g = 0, b = 0, c = 0;
+			// Leave out the supersamples off the edge of the histogram.
+			int start = Math.max(-x0, 0);
+			int end = Math.min(cells - x0, taps);
+			for (int t = start, x = x0 + start; t < end; t++, x++) {
+				float w = weights[t];
+				if (coverage[x] != 0) {
+					r += w * red[x];
+					g += w * green[x];
+					b += w * blue[x];
+					c += w;
+				}
+			}
+			filteredRed[offset + px] = r;
+			filteredGreen[offset + px] = g;
+			filteredBlue[offset + px] = b;
+			filteredCoverage[offset + px] = c;
+		}
+		if (fromX < toX) {
+			Arrays.fill(red, fromX, toX, 0);
+			Arrays.fill(green, fromX, toX, 0);
+			Arrays.fill(blue, fromX, toX, 0);
+			Arrays.fill(coverage, fromX, toX, 0);
+		}
+	}
+
+	/**
+	 * Combine the filtered rows of the band into the given row of pixels.
+	 */
+	public void resolveRow(int pixel) {
+		Arrays.fill(pixelRed, 0);
+		Arrays.fill(pixelGreen, 0);
+		Arrays.fill(pixelBlue, 0);
+		Arrays.fill(pixelCoverage, 0);
+		int y0 = getFirstCell(pixel);
+		int from = Math.max(fromCell - y0, 0);
+		int to = Math.min(toCell - y0, weights.length);
+		for (int t = from; t < to; t++) {
+			float w = weights[t];
+			int row = y0 + t - fromCell;
+			int offset = row * width;
+			for (int px = fromPixel[row]; px < toPixel[row]; px++) {
+				pixelRed[px] += w * filteredRed[offset + px];
+				pixelGreen[px] += w * filteredGreen[offset + px];
+				pixelBlue[px] += w * filteredBlue[offset + px];
+				pixelCoverage[px] += w * filteredCoverage[offset + px];
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+
+/**
+ * A fast random number generator for the chaos game, based on xoshiro256**
+ * by David Blackman and Sebastiano Vigna (http://prng.di.unimi.it/).
+ *
+ * Unlike java.util.Random it is not thread safe, so drawing a number is a
+ * handful of arithmetic instructions rather than an atomic update. Every
+ * thread must therefore use its own generator. Independent generators for
+ * the threads of a render are obtained with {@link #stream(long, long)},
+ * which gives non-overlapping parts of the sequence for the same seed.
+ */
+public final class FastRandom {
+	// The jump polynomial, equivalent to 2^128 calls to nextLong.
+	private static final long[] JUMP = {
+		0x180ec6d33cfd0abaL, 0xd5a61266f0c9392cL, 0xa9582618e03fc9aaL, 0x39abdc4529b1661cL
+	};
+
+	private long s0, s1, s2, s3;
+
+	/**
+	 * Create a generator whose state is expanded from the seed with SplitMix64.
+	 */
+	public FastRandom(long seed) {
+		s0 = splitMix(seed += 0x9e3779b97f4a7c15L);
+		s1 = splitMix(seed += 0x9e3779b97f4a7c15L);
+		s2 = splitMix(seed += 0x9e3779b97f4a7c15L);
+		s3 = splitMix(seed += 0x9e3779b97f4a7c15L);
+	}
+
+	/**
+	 * Create a copy of the given generator, which will produce the same sequence.
+	 */
+	public FastRandom(FastRandom other) {
+		s0 = other.s0;
+		s1 = other.s1;
+		s2 = other.s2;
+		s3 = other.s3;
+	}
+
+	/**
+	 * A generator for the given stream of the sequence started by the seed.
+	 * Each stream is 2^128 numbers long, so different streams never overlap.
+	 */
+	public static FastRandom stream(long seed, long index) {
+		FastRandom random = new FastRandom(seed);
+		for (long i = 0; i < index; i++) {
+			random.jump();
+		}
+		return random;
+	}
+
+	private static long splitMix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	public long nextLong() {
+		long result = Long.rotateLeft(s1 * 5, 7) * 9;
+		long t = s1 << 17;
+		s2 ^= s0;
+		s3 ^= s1;
+		s1 ^= s2;
+		s0 ^= s3;
+		s2 ^= t;
+		s3 = Long.rotateLeft(s3, 45);
+		return result;
+	}
+
+	/**
+	 * A uniformly distributed double in [0, 1).
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * A uniformly distributed int in [0, bound), for a positive bound.
+	 */
+	public int nextInt(int bound) {
+		return (int) (((nextLong() >>> 32) * bound) >>> 32);
+	}
+
+	public boolean nextBoolean() {
+		return nextLong() < 0;
+	}
+
+	/**
+	 * Write the state of the generator to a checkpoint.
+	 */
+	public void writeTo(CheckpointOutput out) throws IOException {
+		out.putLong(s0);
+		out.putLong(s1);
+		out.putLong(s2);
+		out.putLong(s3);
+	}
+
+	/**
+	 * Restore the state of the generator from a checkpoint, so that it continues
+	 * with the same sequence as the generator that was written.
+	 */
+	public void readFrom(CheckpointInput in) throws IOException {
+		s0 = in.getLong();
+		s1 = in.getLong();
+		s2 = in.getLong();
+		s3 = in.getLong();
+	}
+
+	/**
+	 * Advance the generator by 2^128 numbers.
+	 */
+	public void jump() {
+		long t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+		for (long jump : JUMP) {
+			for (int b = 0; b < 64; b++) {
+				if ((jump & (1L << b)) != 0) {
+					t0 ^= s0;
+					t1 ^= s1;
+					t2 ^= s2;
+					t3 ^= s3;
+				}
+				nextLong();
+			}
+		}
+		s0 = t0;
+		s1 = t1;
+		s2 = t2;
+		s3 = t3;
+	}
+}
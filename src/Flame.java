@@ -0,0 +1,367 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The parameters of a flame fractal: the weighted variations and the flame
+ * functions, all generated from a single seed.
+ */
+public class Flame {
+	public static final int NUM_VARIATIONS = 49;
+
+	// The most parameters a variation, and the most functions a flame, can have in a checkpoint.
+	private static final int MAX_PARAMETERS = 16;
+	private static final int MAX_FUNCTIONS = 256;
+
+	// Seed and random number generator.
+	private final long seed;
+	private final Random random;
+
+	// Variations and weights.
+	private Variation[] variations;
+	private double[] variationWeights;
+
+	// Flame functions.
+	private int numFunctions = 6;
+	private FlameFunction[] functions;
+
+	// The variations and functions in the form the chaos game uses them.
+	private volatile CompiledFlame compiled;
+
+	/**
+	 * Initialize all the different variations with random parameters,
+	 * and generate normalized random weights for each variation.
+	 * Then initialize a random number of flame functions with random coefficients.
+	 *
+	 * @param seed The seed with which to initialize the random number generator.
+	 */
+	public Flame(long seed) {
+		// Initialize the random number generator with the given seed.
+		this.seed = seed;
+		random = new Random(seed);
+
+		initializeVariations();
+		initializeFlameFunctions();
+	}
+
+	/**
+	 * Recreate a flame from its seed, with the given weights and functions in
+	 * place of the generated ones. The parameters of the variations are
+	 * generated from the seed, so they match those of the original flame.
+	 */
+	public Flame(long seed, double[] variationWeights, FlameFunction[] functions) {
+		this(seed);
+		this.variationWeights = variationWeights.clone();
+		this.functions = functions.clone();
+		numFunctions = functions.length;
+		compile();
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * A new seed drawn from this flame's random number generator, to move on to another flame.
+	 */
+	public long nextSeed() {
+		return random.nextLong();
+	}
+
+	public Variation[] getVariations() {
+		return variations;
+	}
+
+	public double[] getVariationWeights() {
+		return variationWeights;
+	}
+
+	public int getNumFunctions() {
+		return numFunctions;
+	}
+
+	public FlameFunction[] getFunctions() {
+		return functions;
+	}
+
+	/**
+	 * The current variations and functions, compiled for the chaos game.
+	 */
+	public CompiledFlame getCompiled() {
+		return compiled;
+	}
+
+	/**
+	 * Set the weight of a single variation, and recompile the flame.
+	 */
+	public synchronized void setVariationWeight(int variation, double weight) {
+		variationWeights[variation] = weight;
+		compile();
+	}
+
+	/**
+	 * Set the weight with which a flame function is chosen, and recompile the flame.
+	 *
+	 * @throws IllegalArgumentException If the weight is negative, or would leave no function to choose.
+	 */
+	public synchronized void setFunctionWeight(int function, double weight) {
+		FlameFunction old = functions[function];
+		functions[function] = functions[function].withWeight(weight);
+		try {
+			compile();
+		} catch (IllegalArgumentException e) {
+			functions[function] = old;
+			throw e;
+		}
+	}
+
+	/**
+	 * Set the transition weights from a flame function to each of the functions,
+	 * or remove them with null, and recompile the flame.
+	 *
+	 * @throws IllegalArgumentException If there is not one weight per function, or a weight is negative.
+	 */
+	public synchronized void setXaos(int function, double[] xaos) {
+		FlameFunction old = functions[function];
+		functions[function] = functions[function].withXaos(xaos == null ? null : xaos.clone());
+		try {
+			compile();
+		} catch (IllegalArgumentException e) {
+			functions[function] = old;
+			throw e;
+		}
+	}
+
+	/**
+	 * Write the seed, the variation weights and parameters and the flame functions to a checkpoint.
+	 */
+	public synchronized void writeTo(CheckpointOutput out) throws IOException {
+		out.putLong(seed);
+		out.putInt(variationWeights.length);
+		for (double weight : variationWeights) {
+			out.putDouble(weight);
+		}
+		for (Variation variation : variations) {
+			double[] parameters = variation.getParameters();
+			out.putInt(parameters.length);
+			for (double p : parameters) {
+				out.putDouble(p);
+			}
+		}
+		out.putInt(functions.length);
+		for (FlameFunction f : functions) {
+			for (double c : f.coefficients) {
+				out.putDouble(c);
+			}
+			for (double c : f.postCoefficients) {
+				out.putDouble(c);
+			}
+			out.putInt(f.color.getRGB());
+			out.putDouble(f.colorIndex);
+			out.putDouble(f.weight);
+			out.putInt(f.xaos == null ? 0 : f.xaos.length);
+			if (f.xaos != null) {
+				for (double x : f.xaos) {
+					out.putDouble(x);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read a flame written by writeTo from a checkpoint. The variations are
+	 * created from the seed again, and then given the written parameters.
+	 */
+	public static Flame readFrom(CheckpointInput in) throws IOException {
+		long seed = in.getLong();
+		int numVariations = in.getInt();
+		if (numVariations != NUM_VARIATIONS) {
+			throw new IOException("The checkpoint has " + numVariations + " variations rather than " + NUM_VARIATIONS);
+		}
+		double[] weights = new double[numVariations];
+		for (int i = 0; i < numVariations; i++) {
+			weights[i] = in.getDouble();
+		}
+		double[][] parameters = new double[numVariations][];
+		for (int i = 0; i < numVariations; i++) {
+			int numParameters = in.getInt();
+			if (numParameters < 0 || numParameters > MAX_PARAMETERS) {
+				throw new IOException("The checkpoint is corrupt");
+			}
+			parameters[i] = new double[numParameters];
+			for (int j = 0; j < numParameters; j++) {
+				parameters[i][j] = in.getDouble();
+			}
+		}
+		int numFunctions = in.getInt();
+		if (numFunctions < 1) {
+			throw new IOException("The checkpoint has no flame functions");
+		}
+		if (numFunctions > MAX_FUNCTIONS) {
+			throw new IOException("The checkpoint has " + numFunctions + " flame functions, more than " + MAX_FUNCTIONS);
+		}
+		FlameFunction[] functions = new FlameFunction[numFunctions];
+		for (int i = 0; i < numFunctions; i++) {
+			double[] coefficients = new double[6];
+			double[] postCoefficients = new double[6];
+			for (int j = 0; j < 6; j++) {
+				coefficients[j] = in.getDouble();
+			}
+			for (int j = 0; j < 6; j++) {
+				postCoefficients[j] = in.getDouble();
+			}
+			Color color = new Color(in.getInt());
+			double colorIndex = in.getDouble();
+			double weight = in.getDouble();
+			int numXaos = in.getInt();
+			if (numXaos != 0 && numXaos != numFunctions) {
+				throw new IOException("The checkpoint has " + numXaos + " transition weights rather than " + numFunctions);
+			}
+			double[] xaos = null;
+			if (numXaos != 0) {
+				xaos = new double[numXaos];
+				for (int j = 0; j < numXaos; j++) {
+					xaos[j] = in.getDouble();
+				}
+			}
+			functions[i] = new FlameFunction(coefficients, postCoefficients, color, colorIndex, weight, xaos);
+		}
+		Flame flame = new Flame(seed, weights, functions);
+		// Use the written parameters rather than the ones the seed gives, so that the
+		// flame is the one that was saved even if the variations are created differently.
+		for (int i = 0; i < numVariations; i++) {
+			try {
+				flame.variations[i].setParameters(parameters[i]);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("The checkpoint's " + flame.variations[i] + " variation has " + parameters[i].length
+						+ " parameters rather than " + flame.variations[i].getParameters().length);
+			}
+		}
+		flame.compile();
+		return flame;
+	}
+
+	private synchronized void compile() {
+		compiled = new CompiledFlame(variations, variationWeights, functions);
+	}
+
+	public synchronized void initializeVariations() {
+//		// Create Sierpinski's gasket.
+//		variationWeights = new double[1];
+//		variationWeights[0] = 1.0;
+//		variations = new Variation[1];
+//		variations[0] = new Variation.Linear();
+//		numFunctions = 3;
+//		functions = new FlameFunction[3];
+//		functions[0] = new FlameFunction(new double[] {0.5, 0, 0, 0, 0.5, 0}, new double[] {1, 0, 0, 0, 1, 0}, Color.RED, 0);
+//		functions[1] = new FlameFunction(new double[] {0.5, 0, 0.5, 0, 0.5, 0}, new double[] {1, 0, 0, 0, 1, 0}, Color.GREEN, 0.5);
+//		functions[2] = new FlameFunction(new double[] {0.5, 0, 0, 0, 0.5, 0.5}, new double[] {1, 0, 0, 0, 1, 0}, Color.BLUE, 1);
+
+		// Normalize all the weights.
+		variationWeights = new double[NUM_VARIATIONS];
+		double total = 0;
+		for (int i = 0; i < NUM_VARIATIONS; i++) {
+			if (random.nextDouble() < 0.3) {
+				variationWeights[i] = random.nextDouble() + 0.1;
+				total += variationWeights[i];
+			} else {
+				variationWeights[i] = 0.0;
+			}
+		}
+		for (int i = 0; i < NUM_VARIATIONS; i++) {
+			variationWeights[i] /= total;
+		}
+
+		// Initialize all the variations.
+		variations = new Variation[NUM_VARIATIONS];
+		variations[0] = new Variation.Linear();
+		variations[1] = new Variation.Sinusoidal();
+		variations[2] = new Variation.Spherical();
+		variations[3] = new Variation.Swirl();
+		variations[4] = new Variation.Horseshoe();
+		variations[5] = new Variation.Polar();
+		variations[6] = new Variation.Handkerchief();
+		variations[7] = new Variation.Heart();
+		variations[8] = new Variation.Disc();
+		variations[9] = new Variation.Spiral();
+		variations[10] = new Variation.Hyperbolic();
+		variations[11] = new Variation.Diamond();
+		variations[12] = new Variation.Ex();
+		variations[13] = new Variation.Julia();
+		variations[14] = new Variation.Bent();
+		variations[15] = new Variation.Waves();
+		variations[16] = new Variation.Fisheye();
+		variations[17] = new Variation.Popcorn();
+		variations[18] = new Variation.Exponential();
+		variations[19] = new Variation.Power();
+		variations[20] = new Variation.Cosine();
+		variations[21] = new Variation.Rings();
+		variations[22] = new Variation.Fan();
+		variations[23] = new Variation.Blob(random.nextDouble(), random.nextDouble(), random.nextDouble());
+		variations[24] = new Variation.PDJ(random.nextDouble(), random.nextDouble(), random.nextDouble(), random.nextDouble());
+		variations[25] = new Variation.Fan2(random.nextDouble(), random.nextDouble());
+		variations[26] = new Variation.Rings2(random.nextDouble());
+		variations[27] = new Variation.Eyefish();
+		variations[28] = new Variation.Bubble();
+		variations[29] = new Variation.Cylinder();
+		variations[30] = new Variation.Perspective(random.nextDouble() * Math.PI * 2, random.nextGaussian());
+		variations[31] = new Variation.Noise();
+		variations[32] = new Variation.JuliaN(random.nextGaussian(), random.nextGaussian());
+		variations[33] = new Variation.JuliaScope(random.nextGaussian(), random.nextGaussian());
+		variations[34] = new Variation.Blur();
+		variations[35] = new Variation.Gaussian();
+		variations[36] = new Variation.RadialBlur(random.nextDouble() * Math.PI * 2, variationWeights[36]);
+		variations[37] = new Variation.Pie(random.nextInt(10), random.nextDouble() * Math.PI * 2, random.nextDouble());
+		variations[38] = new Variation.Ngon(random.nextDouble() * 5, random.nextInt(10), random.nextInt(12), random.nextGaussian());
+		variations[39] = new Variation.Curl(random.nextGaussian(), random.nextGaussian());
+		variations[40] = new Variation.Rectangles(random.nextGaussian(), random.nextGaussian());
+		variations[41] = new Variation.Arch(variationWeights[41]);
+		variations[42] = new Variation.Tangent();
+		variations[43] = new Variation.Square();
+		variations[44] = new Variation.Rays(variationWeights[44]);
+		variations[45] = new Variation.Blade(variationWeights[45]);
+		variations[46] = new Variation.Secant(variationWeights[46]);
+		variations[47] = new Variation.Twintrian(variationWeights[47]);
+		variations[48] = new Variation.Cross();
+
+		if (functions != null) {
+			compile();
+		}
+	}
+
+	private void initializeFlameFunctions() {
+		// Initialize the flame functions.
+		functions = new FlameFunction[numFunctions];
+		for(int i = 0; i < numFunctions; i++) {
+			double[] coefficients = new double[6];
+			double[] postCoefficients = new double[6];
+			for(int j = 0; j < 6; j++) {
+				coefficients[j] = random.nextGaussian();
+				postCoefficients[j] = random.nextGaussian();
+			}
+			Color color = new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+			// Spread the functions evenly over the palette, in the same order as their colors in it.
+			double colorIndex = numFunctions > 1 ? i / (double) (numFunctions - 1) : 0;
+			functions[i] = new FlameFunction(coefficients, postCoefficients, color, colorIndex);
+		}
+		compile();
+	}
+}
@@ -20,16 +20,60 @@ import java.awt.Color;
 
 /**
  * A flame function, comprising of 6 coefficients, 6 post coefficients,
- * and a function color.
+ * a function color and color index, and the weights it is chosen with in the chaos game.
  */
 public class FlameFunction {
 	public final double[] coefficients;
 	public final double[] postCoefficients;
 	public final Color color;
 
-	public FlameFunction(double[] coefficients, double[] postCoefficients, Color color) {
+	// The components of the color, normalized to [0, 1].
+	public final double red;
+	public final double green;
+	public final double blue;
+
+	// The position in [0, 1] of the function in a palette, used in place of the color with palette coloring.
+	public final double colorIndex;
+
+	// The relative weight with which the function is chosen.
+	public final double weight;
+
+	// The transition weights from this function to each of the functions of the
+	// flame, by which their weights are multiplied when choosing the function
+	// that follows this one, or null to leave their weights as they are.
+	public final double[] xaos;
+
+	/**
+	 * A function with a weight of 1 and no transition weights.
+	 */
+	public FlameFunction(double[] coefficients, double[] postCoefficients, Color color, double colorIndex) {
+		this(coefficients, postCoefficients, color, colorIndex, 1, null);
+	}
+
+	public FlameFunction(double[] coefficients, double[] postCoefficients, Color color, double colorIndex,
+			double weight, double[] xaos) {
 		this.coefficients = coefficients;
 		this.postCoefficients = postCoefficients;
 		this.color = color;
+		this.colorIndex = colorIndex;
+		this.weight = weight;
+		this.xaos = xaos;
+		red = color.getRed() / 255.0;
+		green = color.getGreen() / 255.0;
+		blue = color.getBlue() / 255.0;
+	}
+
+	/**
+	 * A copy of the function with another weight.
+	 */
+	public FlameFunction withWeight(double weight) {
+		return new FlameFunction(coefficients, postCoefficients, color, colorIndex, weight, xaos);
+	}
+
+	/**
+	 * A copy of the function with other transition weights, or none.
+	 */
+	public FlameFunction withXaos(double[] xaos) {
+		return new FlameFunction(coefficients, postCoefficients, color, colorIndex, weight, xaos);
 	}
 }
@@ -0,0 +1,180 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A quick check of whether a flame is worth rendering.
+ *
+ * Many seeds give flames whose points collapse onto a handful of pixels or fly
+ * off out of view. Rather than finding that out with a full render, the probe
+ * plays a few thousand iterations of the chaos game onto a small grid, and
+ * measures how many of its cells are hit and how many points escape.
+ */
+public class FlameProbe {
+	// The size of the grid, the number of iterations played onto it and the number of points they are shared between.
+	private static final int GRID_WIDTH = 64;
+	private static final int GRID_HEIGHT = 48;
+	private static final int ITERATIONS = 20000;
+	private static final int POINTS = 8;
+
+	// A flame must hit at least this many cells, with at most this fraction of its points escaping.
+	private static final int MIN_CELLS = 16;
+	private static final double MAX_ESCAPED = 0.9;
+
+	// The number of seeds probed at once when searching for a good one.
+	private static final int CANDIDATES = 8;
+
+	private final int realZoom;
+
+	/**
+	 * @param zoom The zoom level the flame will be rendered at, from 1 to Renderer.MAX_ZOOM.
+	 */
+	public FlameProbe(int zoom) {
+		if (zoom < 1 || zoom > Renderer.MAX_ZOOM) {
+			throw new IllegalArgumentException("Zoom must be between 1 and " + Renderer.MAX_ZOOM);
+		}
+		realZoom = (Renderer.MAX_ZOOM + 1) - zoom;
+	}
+
+	/**
+	 * Play the chaos game on a small grid, with a few points that each play
+	 * their own game, like the workers of a render.
+	 *
+	 * @return The number of cells hit, or 0 if too many of the iterations escaped out of view or were lost.
+	 */
+	public int probe(Flame flame) {
+		boolean[] hit = new boolean[GRID_WIDTH * GRID_HEIGHT];
+		int escaped = play(flame, GRID_WIDTH, GRID_HEIGHT, ITERATIONS, hit);
+		return escaped > ITERATIONS / POINTS * POINTS * MAX_ESCAPED ? 0 : count(hit);
+	}
+
+	/**
+	 * The fraction of the cells of a grid of the given size over the view that
+	 * the chaos game of the flame hits in the given number of iterations.
+	 */
+	public double coverage(Flame flame, int gridWidth, int gridHeight, int iterations) {
+		boolean[] hit = new boolean[gridWidth * gridHeight];
+		play(flame, gridWidth, gridHeight, iterations, hit);
+		return count(hit) / (double) hit.length;
+	}
+
+	/**
+	 * Play the chaos game onto a grid, marking the cells that are hit.
+	 *
+	 * @return The number of iterations that escaped out of view or were lost.
+	 */
+	private int play(Flame flame, int gridWidth, int gridHeight, int totalIterations, boolean[] hit) {
+		CompiledFlame compiled = flame.getCompiled();
+		FlameFunction[] functions = compiled.getFunctions();
+		FastRandom rnd = new FastRandom(flame.getSeed());
+		double[] p = new double[2];
+		double[] newp = new double[2];
+		int iterations = totalIterations / POINTS;
+
+		int escaped = 0;
+		for (int k = 0; k < POINTS; k++) {
+			p[0] = rnd.nextDouble();
+			p[1] = rnd.nextDouble();
+			int function = -1;
+			for (int i = -20; i < iterations; i++) {
+				function = compiled.nextFunction(function, rnd);
+				compiled.applyAll(functions[function], p, newp, rnd);
+				if (Double.isNaN(p[0]) || Double.isNaN(p[1])) {
+					// A point that has become NaN stays NaN, so the rest of its game is lost.
+					escaped += iterations - Math.max(i, 0);
+					break;
+				}
+				// Let the point settle onto the attractor before counting it.
+				if (i < 0) {
+					continue;
+				}
+				if (p[0] > realZoom || p[0] < -realZoom || p[1] > realZoom || p[1] < -realZoom) {
+					escaped++;
+					continue;
+				}
+				int x = Math.min((int) (p[0] * gridWidth / (realZoom * 2) + gridWidth / 2), gridWidth - 1);
+				int y = Math.min((int) (p[1] * gridHeight / (realZoom * 2) + gridHeight / 2), gridHeight - 1);
+				hit[y * gridWidth + x] = true;
+			}
+		}
+		return escaped;
+	}
+
+	private static int count(boolean[] hit) {
+		int cells = 0;
+		for (boolean h : hit) {
+			if (h) {
+				cells++;
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * Whether the flame is worth rendering.
+	 */
+	public boolean isGood(Flame flame) {
+		return probe(flame) >= MIN_CELLS;
+	}
+
+	/**
+	 * Find the first good flame in the sequence that starts with the given seed
+	 * and moves on with Flame.nextSeed, probing several of them at once.
+	 */
+	public Flame findGood(long seed, ExecutorService workers) throws InterruptedException {
+		Flame flame = new Flame(seed);
+		while (true) {
+			// The sequence of seeds is fixed, so the flame found does not depend on the timing of the probes.
+			final List<Flame> candidates = new ArrayList<>(CANDIDATES);
+			candidates.add(flame);
+			for (int i = 1; i < CANDIDATES; i++) {
+				flame = new Flame(flame.nextSeed());
+				candidates.add(flame);
+			}
+			List<Future<Boolean>> results = new ArrayList<>(CANDIDATES);
+			for (final Flame candidate : candidates) {
+				results.add(workers.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return isGood(candidate);
+					}
+				}));
+			}
+			try {
+				for (int i = 0; i < CANDIDATES; i++) {
+					if (results.get(i).get()) {
+						return candidates.get(i);
+					}
+				}
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				for (Future<Boolean> result : results) {
+					result.cancel(true);
+				}
+			}
+			flame = new Flame(flame.nextSeed());
+		}
+	}
+}
@@ -0,0 +1,726 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The buffer the chaos game accumulates its hits into.
+ *
+ * For every cell it holds the number of hits and the sum of the red, green
+ * and blue components of the point color at each hit. An indexed histogram,
+ * for palette coloring, holds the sum of the color indices of the hits instead,
+ * and gives the color sums of a cell by looking up its average index in its
+ * palette, times its hits. The width of the hit counters is a property of the
+ * histogram, see HitCounts. Cells are stored row by row, so walking a row
+ * visits consecutive cells.
+ */
+public abstract class Histogram {
+
+	/**
+	 * Where the cells of a histogram are kept.
+	 */
+	public enum Storage {
+		/** On the Java heap, one flat array per channel. */
+		HEAP,
+		/** On the Java heap, in tiles that are only allocated once they are hit, see SparseHistogram. */
+		SPARSE,
+		/** Off the heap, in a temporary memory-mapped file. */
+		MAPPED;
+
+		/**
+		 * The storage chosen by a command line option, -dense, -sparse or -mapped,
+		 * or null if the option is not one of them.
+		 */
+		public static Storage fromOption(String option) {
+			switch (option) {
+			case "-dense":
+				return HEAP;
+			case "-sparse":
+				return SPARSE;
+			case "-mapped":
+				return MAPPED;
+			default:
+				return null;
+			}
+		}
+
+		/**
+		 * Print the usage of the storage options, in the format of the command line tools.
+		 */
+		public static void printOptions() {
+			System.err.println("  -mapped           keep the histograms in memory-mapped files");
+			System.err.println("  -sparse           keep the histograms in tiles that are allocated as they are hit");
+			System.err.println("  -dense            keep the histograms on the heap as a whole");
+			System.err.println("                    (default: sparse for flames that cover little of the image)");
+		}
+	}
+
+	protected final int width;
+	protected final int height;
+
+	// The palette the colors of an indexed histogram are looked up in.
+	private volatile Palette palette;
+
+	protected Histogram(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Create a new, empty histogram.
+	 *
+	 * @param storage Where to keep the cells.
+	 * @param singlePrecision Whether to store the color sums as floats rather than doubles.
+	 * Floats halve the size of the color channels, but lose precision in very dense cells.
+	 * @param indexed Whether to store the sum of the color indices rather than the color sums.
+	 * @param counters The width of the hit counters.
+	 */
+	public static Histogram create(int width, int height, Storage storage, boolean singlePrecision, boolean indexed,
+			HitCounts.Width counters) {
+		if (storage == Storage.MAPPED) {
+			return new MappedHistogram(width, height, singlePrecision, indexed, counters);
+		}
+		if (storage == Storage.SPARSE) {
+			return new SparseHistogram(width, height, singlePrecision, indexed, counters);
+		}
+		if (indexed) {
+			return singlePrecision ? new IndexedSinglePrecision(width, height, counters)
+					: new IndexedDoublePrecision(width, height, counters);
+		}
+		if (singlePrecision) {
+			return new SinglePrecision(width, height, counters);
+		}
+		return new DoublePrecision(width, height, counters);
+	}
+
+	/**
+	 * Whether the given histogram exists and has the given layout, so that it can be reused.
+	 */
+	public static boolean fits(Histogram histogram, int width, int height, Storage storage, boolean singlePrecision,
+			boolean indexed, HitCounts.Width counters) {
+		return histogram != null && histogram.width == width && histogram.height == height
+				&& histogram.getStorage() == storage && histogram.isSinglePrecision() == singlePrecision
+				&& histogram.isIndexed() == indexed && histogram.getCounters() == counters;
+	}
+
+	public abstract Storage getStorage();
+
+	public abstract boolean isSinglePrecision();
+
+	/**
+	 * Whether the histogram holds color indices rather than colors.
+	 */
+	public abstract boolean isIndexed();
+
+	public abstract HitCounts.Width getCounters();
+
+	/**
+	 * Set the palette the colors of an indexed histogram are looked up in. It
+	 * must be set before the colors are read, and can be changed at any time.
+	 */
+	public void setPalette(Palette palette) {
+		this.palette = palette;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * The first cell of row y from x on that may have been hit, or the width of
+	 * the histogram if there is none. Histograms that know which of their cells
+	 * are empty skip them, the others return x.
+	 */
+	public int nextCell(int x, int y) {
+		return x;
+	}
+
+	public abstract long getCount(int x, int y);
+
+	public abstract double getRed(int x, int y);
+
+	public abstract double getGreen(int x, int y);
+
+	public abstract double getBlue(int x, int y);
+
+	/**
+	 * The sum of the color indices of a cell of an indexed histogram.
+	 */
+	public double getIndex(int x, int y) {
+		throw new UnsupportedOperationException("The histogram is not indexed");
+	}
+
+	/**
+	 * Record a hit of a point with the given color in the given cell.
+	 */
+	public abstract void add(int x, int y, double r, double g, double b);
+
+	/**
+	 * Set the hit count and color sums of a cell.
+	 */
+	public abstract void set(int x, int y, long count, double r, double g, double b);
+
+	/**
+	 * Record a hit of a point with the given color index in the given cell of an indexed histogram.
+	 */
+	public void add(int x, int y, double index) {
+		throw new UnsupportedOperationException("The histogram is not indexed");
+	}
+
+	/**
+	 * Set the hit count and color index sum of a cell of an indexed histogram.
+	 */
+	public void set(int x, int y, long count, double index) {
+		throw new UnsupportedOperationException("The histogram is not indexed");
+	}
+
+	/**
+	 * The red sum of a cell of an indexed histogram, from its palette.
+	 */
+	protected double lookUpRed(int x, int y) {
+		long hits = getCount(x, y);
+		return hits == 0 ? 0 : palette.getRed(getIndex(x, y) / hits) * hits;
+	}
+
+	protected double lookUpGreen(int x, int y) {
+		long hits = getCount(x, y);
+		return hits == 0 ? 0 : palette.getGreen(getIndex(x, y) / hits) * hits;
+	}
+
+	protected double lookUpBlue(int x, int y) {
+		long hits = getCount(x, y);
+		return hits == 0 ? 0 : palette.getBlue(getIndex(x, y) / hits) * hits;
+	}
+
+	/**
+	 * Add the rows [fromRow, toRow) of another histogram of the same size into
+	 * this one. Both must hold colors, or both color indices. Histograms of the
+	 * same type add their arrays directly, others are added cell by cell.
+	 */
+	public void add(Histogram other, int fromRow, int toRow) {
+		boolean indexed = isIndexed();
+		for (int y = fromRow; y < toRow; y++) {
+			for (int x = other.nextCell(0, y); x < width; x = other.nextCell(x + 1, y)) {
+				long hits = other.getCount(x, y);
+				if (hits == 0) {
+					continue;
+				}
+				if (indexed) {
+					set(x, y, getCount(x, y) + hits, getIndex(x, y) + other.getIndex(x, y));
+				} else {
+					set(x, y, getCount(x, y) + hits, getRed(x, y) + other.getRed(x, y),
+							getGreen(x, y) + other.getGreen(x, y), getBlue(x, y) + other.getBlue(x, y));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reset all the cells to empty.
+	 */
+	public void clear() {
+		clear(0, height);
+	}
+
+	/**
+	 * Reset the cells of the rows [fromRow, toRow) to empty.
+	 */
+	public abstract void clear(int fromRow, int toRow);
+
+	/**
+	 * Write the histogram to a checkpoint. Only the cells that have been hit are
+	 * written, row by row, with the color sums or index sums in the histogram's precision.
+	 */
+	public void writeTo(CheckpointOutput out) throws IOException {
+		boolean single = isSinglePrecision();
+		boolean indexed = isIndexed();
+		out.putInt(width);
+		out.putInt(height);
+		out.putBoolean(single);
+		out.putBoolean(indexed);
+		out.putBoolean(getCounters() == HitCounts.Width.WIDE);
+		for (int y = 0; y < height; y++) {
+			int cells = 0;
+			for (int x = nextCell(0, y); x < width; x = nextCell(x + 1, y)) {
+				if (getCount(x, y) != 0) {
+					cells++;
+				}
+			}
+			out.putInt(cells);
+			for (int x = nextCell(0, y); x < width && cells > 0; x = nextCell(x + 1, y)) {
+				long hits = getCount(x, y);
+				if (hits != 0) {
+					out.putInt(x);
+					out.putLong(hits);
+					if (indexed) {
+						if (single) {
+							out.putFloat((float) getIndex(x, y));
+						} else {
+							out.putDouble(getIndex(x, y));
+						}
+					} else if (single) {
+						out.putFloat((float) getRed(x, y));
+						out.putFloat((float) getGreen(x, y));
+						out.putFloat((float) getBlue(x, y));
+					} else {
+						out.putDouble(getRed(x, y));
+						out.putDouble(getGreen(x, y));
+						out.putDouble(getBlue(x, y));
+					}
+					cells--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read a histogram written by writeTo from a checkpoint, into a new histogram with the given storage.
+	 */
+	public static Histogram readFrom(CheckpointInput in, Storage storage) throws IOException {
+		int width = in.getInt();
+		int height = in.getInt();
+		boolean single = in.getBoolean();
+		boolean indexed = in.getBoolean();
+		HitCounts.Width counters = in.getBoolean() ? HitCounts.Width.WIDE : HitCounts.Width.COMPACT;
+		if (width < 1 || height < 1) {
+			throw new IOException("The checkpoint has a " + width + "x" + height + " histogram");
+		}
+		Histogram histogram = create(width, height, storage, single, indexed, counters);
+		histogram.readCells(in, single, false);
+		return histogram;
+	}
+
+	/**
+	 * Read a histogram of the same size written by writeTo, and add its cells into this one.
+	 */
+	public void addFrom(CheckpointInput in) throws IOException {
+		int w = in.getInt();
+		int h = in.getInt();
+		boolean single = in.getBoolean();
+		boolean indexed = in.getBoolean();
+		// The counters can be added whatever their width.
+		in.getBoolean();
+		if (w != width || h != height) {
+			throw new IOException("Can not add a " + w + "x" + h + " histogram to a " + width + "x" + height + " histogram");
+		}
+		if (indexed != isIndexed()) {
+			throw new IOException("Can not add a histogram of colors and one of color indices");
+		}
+		readCells(in, single, true);
+	}
+
+	private void readCells(CheckpointInput in, boolean single, boolean add) throws IOException {
+		for (int y = 0; y < height; y++) {
+			int cells = in.getInt();
+			for (int i = 0; i < cells; i++) {
+				int x = in.getInt();
+				if (x < 0 || x >= width) {
+					throw new IOException("The histogram has a cell outside of its bounds");
+				}
+				long hits = in.getLong();
+				if (hits < 0) {
+					throw new IOException("The histogram has a negative hit count");
+				}
+				if (isIndexed()) {
+					double index = single ? in.getFloat() : in.getDouble();
+					set(x, y, add ? getCount(x, y) + hits : hits, add ? getIndex(x, y) + index : index);
+					continue;
+				}
+				double r, g, b;
+				if (single) {
+					r = in.getFloat();
+					g = in.getFloat();
+					b = in.getFloat();
+				} else {
+					r = in.getDouble();
+					g = in.getDouble();
+					b = in.getDouble();
+				}
+				if (add) {
+					set(x, y, getCount(x, y) + hits, getRed(x, y) + r, getGreen(x, y) + g, getBlue(x, y) + b);
+				} else {
+					set(x, y, hits, r, g, b);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The number of cells in a histogram of the given size, if it fits in a Java array.
+	 */
+	private static int cells(int width, int height) {
+		long cells = (long) width * height;
+		if (cells > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("A " + width + "x" + height + " histogram does not fit on the heap, use " + Storage.MAPPED + " storage");
+		}
+		return (int) cells;
+	}
+
+	public static class SinglePrecision extends Histogram {
+		private final HitCounts count;
+		private final float[] red;
+		private final float[] green;
+		private final float[] blue;
+
+		public SinglePrecision(int width, int height, HitCounts.Width counters) {
+			super(width, height);
+			count = HitCounts.create(cells(width, height), counters);
+			red = new float[width * height];
+			green = new float[width * height];
+			blue = new float[width * height];
+		}
+
+		public Storage getStorage() {
+			return Storage.HEAP;
+		}
+
+		public boolean isSinglePrecision() {
+			return true;
+		}
+
+		public boolean isIndexed() {
+			return false;
+		}
+
+		public HitCounts.Width getCounters() {
+			return count.getWidth();
+		}
+
+		public long getCount(int x, int y) {
+			return count.get(y * width + x);
+		}
+
+		public double getRed(int x, int y) {
+			return red[y * width + x];
+		}
+
+		public double getGreen(int x, int y) {
+			return green[y * width + x];
+		}
+
+		public double getBlue(int x, int y) {
+			return blue[y * width + x];
+		}
+
+		public void add(int x, int y, double r, double g, double b) {
+			int i = y * width + x;
+			count.increment(i);
+			red[i] += r;
+			green[i] += g;
+			blue[i] += b;
+		}
+
+		public void set(int x, int y, long hits, double r, double g, double b) {
+			int i = y * width + x;
+			count.set(i, hits);
+			red[i] = (float) r;
+			green[i] = (float) g;
+			blue[i] = (float) b;
+		}
+
+		public void add(Histogram other, int fromRow, int toRow) {
+			if (!(other instanceof SinglePrecision)) {
+				super.add(other, fromRow, toRow);
+				return;
+			}
+			SinglePrecision o = (SinglePrecision) other;
+			for (int i = fromRow * width; i < toRow * width; i++) {
+				long hits = o.count.get(i);
+				if (hits != 0) {
+					count.add(i, hits);
+					red[i] += o.red[i];
+					green[i] += o.green[i];
+					blue[i] += o.blue[i];
+				}
+			}
+		}
+
+		public void clear(int fromRow, int toRow) {
+			count.clear(fromRow * width, toRow * width);
+			Arrays.fill(red, fromRow * width, toRow * width, 0);
+			Arrays.fill(green, fromRow * width, toRow * width, 0);
+			Arrays.fill(blue, fromRow * width, toRow * width, 0);
+		}
+	}
+
+	public static class DoublePrecision extends Histogram {
+		private final HitCounts count;
+		private final double[] red;
+		private final double[] green;
+		private final double[] blue;
+
+		public DoublePrecision(int width, int height, HitCounts.Width counters) {
+			super(width, height);
+			count = HitCounts.create(cells(width, height), counters);
+			red = new double[width * height];
+			green = new double[width * height];
+			blue = new double[width * height];
+		}
+
+		public Storage getStorage() {
+			return Storage.HEAP;
+		}
+
+		public boolean isSinglePrecision() {
+			return false;
+		}
+
+		public boolean isIndexed() {
+			return false;
+		}
+
+		public HitCounts.Width getCounters() {
+			return count.getWidth();
+		}
+
+		public long getCount(int x, int y) {
+			return count.get(y * width + x);
+		}
+
+		public double getRed(int x, int y) {
+			return red[y * width + x];
+		}
+
+		public double getGreen(int x, int y) {
+			return green[y * width + x];
+		}
+
+		public double getBlue(int x, int y) {
+			return blue[y * width + x];
+		}
+
+		public void add(int x, int y, double r, double g, double b) {
+			int i = y * width + x;
+			count.increment(i);
+			red[i] += r;
+			green[i] += g;
+			blue[i] += b;
+		}
+
+		public void set(int x, int y, long hits, double r, double g, double b) {
+			int i = y * width + x;
+			count.set(i, hits);
+			red[i] = r;
+			green[i] = g;
+			blue[i] = b;
+		}
+
+		public void add(Histogram other, int fromRow, int toRow) {
+			if (!(other instanceof DoublePrecision)) {
+				super.add(other, fromRow, toRow);
+				return;
+			}
+			DoublePrecision o = (DoublePrecision) other;
+			for (int i = fromRow * width; i < toRow * width; i++) {
+				long hits = o.count.get(i);
+				if (hits != 0) {
+					count.add(i, hits);
+					red[i] += o.red[i];
+					green[i] += o.green[i];
+					blue[i] += o.blue[i];
+				}
+			}
+		}
+
+		public void clear(int fromRow, int toRow) {
+			count.clear(fromRow * width, toRow * width);
+			Arrays.fill(red, fromRow * width, toRow * width, 0);
+			Arrays.fill(green, fromRow * width, toRow * width, 0);
+			Arrays.fill(blue, fromRow * width, toRow * width, 0);
+		}
+	}
+
+	public static class IndexedSinglePrecision extends Histogram {
+		private final HitCounts count;
+		private final float[] index;
+
+		public IndexedSinglePrecision(int width, int height, HitCounts.Width counters) {
+			super(width, height);
+			count = HitCounts.create(cells(width, height), counters);
+			index = new float[width * height];
+		}
+
+		public Storage getStorage() {
+			return Storage.HEAP;
+		}
+
+		public boolean isSinglePrecision() {
+			return true;
+		}
+
+		public boolean isIndexed() {
+			return true;
+		}
+
+		public HitCounts.Width getCounters() {
+			return count.getWidth();
+		}
+
+		public long getCount(int x, int y) {
+			return count.get(y * width + x);
+		}
+
+		public double getRed(int x, int y) {
+			return lookUpRed(x, y);
+		}
+
+		public double getGreen(int x, int y) {
+			return lookUpGreen(x, y);
+		}
+
+		public double getBlue(int x, int y) {
+			return lookUpBlue(x, y);
+		}
+
+		public double getIndex(int x, int y) {
+			return index[y * width + x];
+		}
+
+		public void add(int x, int y, double r, double g, double b) {
+			throw new UnsupportedOperationException("The histogram is indexed");
+		}
+
+		public void set(int x, int y, long hits, double r, double g, double b) {
+			throw new UnsupportedOperationException("The histogram is indexed");
+		}
+
+		public void add(int x, int y, double c) {
+			int i = y * width + x;
+			count.increment(i);
+			index[i] += c;
+		}
+
+		public void set(int x, int y, long hits, double c) {
+			int i = y * width + x;
+			count.set(i, hits);
+			index[i] = (float) c;
+		}
+
+		public void add(Histogram other, int fromRow, int toRow) {
+			if (!(other instanceof IndexedSinglePrecision)) {
+				super.add(other, fromRow, toRow);
+				return;
+			}
+			IndexedSinglePrecision o = (IndexedSinglePrecision) other;
+			for (int i = fromRow * width; i < toRow * width; i++) {
+				long hits = o.count.get(i);
+				if (hits != 0) {
+					count.add(i, hits);
+					index[i] += o.index[i];
+				}
+			}
+		}
+
+		public void clear(int fromRow, int toRow) {
+			count.clear(fromRow * width, toRow * width);
+			Arrays.fill(index, fromRow * width, toRow * width, 0);
+		}
+	}
+
+	public static class IndexedDoublePrecision extends Histogram {
+		private final HitCounts count;
+		private final double[] index;
+
+		public IndexedDoublePrecision(int width, int height, HitCounts.Width counters) {
+			super(width, height);
+			count = HitCounts.create(cells(width, height), counters);
+			index = new double[width * height];
+		}
+
+		public Storage getStorage() {
+			return Storage.HEAP;
+		}
+
+		public boolean isSinglePrecision() {
+			return false;
+		}
+
+		public boolean isIndexed() {
+			return true;
+		}
+
+		public HitCounts.Width getCounters() {
+			return count.getWidth();
+		}
+
+		public long getCount(int x, int y) {
+			return count.get(y * width + x);
+		}
+
+		public double getRed(int x, int y) {
+			return lookUpRed(x, y);
+		}
+
+		public double getGreen(int x, int y) {
+			return lookUpGreen(x, y);
+		}
+
+		public double getBlue(int x, int y) {
+			return lookUpBlue(x, y);
+		}
+
+		public double getIndex(int x, int y) {
+			return index[y * width + x];
+		}
+
+		public void add(int x, int y, double r, double g, double b) {
+			throw new UnsupportedOperationException("The histogram is indexed");
+		}
+
+		public void set(int x, int y, long hits, double r, double g, double b) {
+			throw new UnsupportedOperationException("The histogram is indexed");
+		}
+
+		public void add(int x, int y, double c) {
+			int i = y * width + x;
+			count.increment(i);
+			index[i] += c;
+		}
+
+		public void set(int x, int y, long hits, double c) {
+			int i = y * width + x;
+			count.set(i, hits);
+			index[i] = c;
+		}
+
+		public void add(Histogram other, int fromRow, int toRow) {
+			if (!(other instanceof IndexedDoublePrecision)) {
+				super.add(other, fromRow, toRow);
+				return;
+			}
+			IndexedDoublePrecision o = (IndexedDoublePrecision) other;
+			for (int i = fromRow * width; i < toRow * width; i++) {
+				long hits = o.count.get(i);
+				if (hits != 0) {
+					count.add(i, hits);
+					index[i] += o.index[i];
+				}
+			}
+		}
+
+		public void clear(int fromRow, int toRow) {
+			count.clear(fromRow * width, toRow * width);
+			Arrays.fill(index, fromRow * width, toRow * width, 0);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The hit counters of the cells of a histogram.
+ *
+ * Long renders can hit the densest cells more than Integer.MAX_VALUE times.
+ * Wide counters are longs, which never overflow but double the size of the
+ * counters. Compact counters are ints, and the few cells that get near the
+ * limit of an int spill the bulk of their count into a side table of longs.
+ * Counts below SPILL_BASE never touch the table, so compact counters cost
+ * no more than plain ints for all but the densest cells.
+ */
+public abstract class HitCounts {
+
+	/**
+	 * The width of the counters.
+	 */
+	public enum Width {
+		/** 32 bit counters, spilling into a side table near their limit. */
+		COMPACT,
+		/** 64 bit counters. */
+		WIDE
+	}
+
+	// A compact counter that reaches Integer.MAX_VALUE spills all but this much into the side table.
+	static final int SPILL_BASE = 1 << 30;
+
+	public static HitCounts create(int cells, Width width) {
+		return width == Width.WIDE ? new Wide(cells) : new Compact(cells);
+	}
+
+	public abstract Width getWidth();
+
+	public abstract long get(int i);
+
+	/**
+	 * Count one more hit of a cell.
+	 */
+	public abstract void increment(int i);
+
+	/**
+	 * Count a number of hits of a cell.
+	 */
+	public abstract void add(int i, long hits);
+
+	public abstract void set(int i, long hits);
+
+	/**
+	 * Reset the counters [from, to) to 0.
+	 */
+	public abstract void clear(int from, int to);
+
+	/**
+	 * The counts that compact counters have spilled, by cell. The counters of a
+	 * histogram are written to by a single thread, but merging histograms adds
+	 * to disjoint rows from several threads, so the table is synchronized.
+	 * Cells are numbered with longs, as a mapped histogram can have more cells than an int can count.
+	 */
+	static class Spill {
+		private final Map<Long, Long> spilled = new HashMap<>();
+
+		public synchronized long get(long i) {
+			Long hits = spilled.get(i);
+			return hits != null ? hits : 0;
+		}
+
+		public synchronized void add(long i, long hits) {
+			spilled.put(i, get(i) + hits);
+		}
+
+		public synchronized void set(long i, long hits) {
+			if (hits != 0) {
+				spilled.put(i, hits);
+			} else {
+				spilled.remove(i);
+			}
+		}
+
+		public synchronized void clear(long from, long to) {
+			if (spilled.isEmpty()) {
+				return;
+			}
+			for (Iterator<Long> it = spilled.keySet().iterator(); it.hasNext();) {
+				long i = it.next();
+				if (i >= from && i < to) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	private static class Compact extends HitCounts {
+		private final int[] count;
+		private final Spill spill = new Spill();
+
+		public Compact(int cells) {
+			count = new int[cells];
+		}
+
+		public Width getWidth() {
+			return Width.COMPACT;
+		}
+
+		public long get(int i) {
+			int hits = count[i];
+			return hits < SPILL_BASE ? hits : hits + spill.get(i);
+		}
+
+		public void increment(int i) {
+			if (++count[i] == Integer.MAX_VALUE) {
+				spill.add(i, Integer.MAX_VALUE - SPILL_BASE);
+				count[i] = SPILL_BASE;
+			}
+		}
+
+		public void add(int i, long hits) {
+			long sum = count[i] + hits;
+			if (sum < Integer.MAX_VALUE) {
+				count[i] = (int) sum;
+			} else {
+				spill.add(i, sum - SPILL_BASE);
+				count[i] = SPILL_BASE;
+			}
+		}
+
+		public void set(int i, long hits) {
+			if (hits < 0) {
+				throw new IllegalArgumentException("Negative hit count " + hits);
+			}
+			if (hits < SPILL_BASE) {
+				if (count[i] >= SPILL_BASE) {
+					spill.set(i, 0);
+				}
+				count[i] = (int) hits;
+			} else {
+				count[i] = SPILL_BASE;
+				spill.set(i, hits - SPILL_BASE);
+			}
+		}
+
+		public void clear(int from, int to) {
+			Arrays.fill(count, from, to, 0);
+			spill.clear(from, to);
+		}
+	}
+
+	private static class Wide extends HitCounts {
+		private final long[] count;
+
+		public Wide(int cells) {
+			count = new long[cells];
+		}
+
+		public Width getWidth() {
+			return Width.WIDE;
+		}
+
+		public long get(int i) {
+			return count[i];
+		}
+
+		public void increment(int i) {
+			count[i]++;
+		}
+
+		public void add(int i, long hits) {
+			count[i] += hits;
+		}
+
+		public void set(int i, long hits) {
+			count[i] = hits;
+		}
+
+		public void clear(int from, int to) {
+			Arrays.fill(count, from, to, 0);
+		}
+	}
+}
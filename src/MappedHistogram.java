@@ -0,0 +1,289 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A histogram kept off the heap in a temporary memory-mapped file, so that its
+ * size is limited by disk space and the page cache rather than the heap.
+ *
+ * Each cell is a record of the hit count followed by the red, green and blue
+ * sums, or by the color index sum for an indexed histogram, so a hit touches a
+ * single page. The count is an int or a long depending on the width of the
+ * counters, and compact counters spill into a side table on the heap as in
+ * HitCounts. As a buffer can map at most 2GB the file is mapped as a number of
+ * chunks, each holding a whole number of rows. The file is created in
+ * java.io.tmpdir and removed once it has been mapped.
+ */
+public class MappedHistogram extends Histogram {
+	// The largest region of a file that can be mapped by a single buffer.
+	private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+
+	private final boolean singlePrecision;
+	private final boolean indexed;
+	private final boolean wide;
+	private final HitCounts.Spill spill;
+	private final int countSize;
+	private final int channelSize;
+	private final int recordSize;
+	private final int rowsPerChunk;
+	private final MappedByteBuffer[] chunks;
+
+	public MappedHistogram(int width, int height, boolean singlePrecision, boolean indexed, HitCounts.Width counters) {
+		super(width, height);
+		this.singlePrecision = singlePrecision;
+		this.indexed = indexed;
+		wide = counters == HitCounts.Width.WIDE;
+		spill = wide ? null : new HitCounts.Spill();
+		countSize = wide ? 8 : 4;
+		channelSize = singlePrecision ? 4 : 8;
+		recordSize = countSize + (indexed ? 1 : 3) * channelSize;
+
+		long rowSize = (long) width * recordSize;
+		if (rowSize > MAX_CHUNK_SIZE) {
+			throw new IllegalArgumentException("A histogram row of width " + width + " is too large to map");
+		}
+		rowsPerChunk = (int) Math.min(height, MAX_CHUNK_SIZE / rowSize);
+		chunks = new MappedByteBuffer[(height + rowsPerChunk - 1) / rowsPerChunk];
+
+		try {
+			File file = File.createTempFile("flame", ".histogram");
+			file.deleteOnExit();
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				// The file is extended with zeros, so all the cells start out empty.
+				raf.setLength(rowSize * height);
+				FileChannel channel = raf.getChannel();
+				for (int i = 0; i < chunks.length; i++) {
+					int rows = Math.min(rowsPerChunk, height - i * rowsPerChunk);
+					chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * rowsPerChunk * rowSize, rows * rowSize);
+					chunks[i].order(ByteOrder.nativeOrder());
+				}
+			}
+			// The mapping stays valid after the file is removed, where the platform allows it.
+			file.delete();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not map a " + width + "x" + height + " histogram", e);
+		}
+	}
+
+	public Storage getStorage() {
+		return Storage.MAPPED;
+	}
+
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	public HitCounts.Width getCounters() {
+		return wide ? HitCounts.Width.WIDE : HitCounts.Width.COMPACT;
+	}
+
+	private MappedByteBuffer chunk(int y) {
+		return chunks[y / rowsPerChunk];
+	}
+
+	private int offset(int x, int y) {
+		return ((y % rowsPerChunk) * width + x) * recordSize;
+	}
+
+	private double getChannel(MappedByteBuffer chunk, int offset) {
+		return singlePrecision ? chunk.getFloat(offset) : chunk.getDouble(offset);
+	}
+
+	private void addChannel(MappedByteBuffer chunk, int offset, double value) {
+		if (singlePrecision) {
+			chunk.putFloat(offset, (float) (chunk.getFloat(offset) + value));
+		} else {
+			chunk.putDouble(offset, chunk.getDouble(offset) + value);
+		}
+	}
+
+	private void setChannel(MappedByteBuffer chunk, int offset, double value) {
+		if (singlePrecision) {
+			chunk.putFloat(offset, (float) value);
+		} else {
+			chunk.putDouble(offset, value);
+		}
+	}
+
+	private long cell(int x, int y) {
+		return (long) y * width + x;
+	}
+
+	private long getHits(MappedByteBuffer chunk, int offset, long cell) {
+		if (wide) {
+			return chunk.getLong(offset);
+		}
+		int hits = chunk.getInt(offset);
+		return hits < HitCounts.SPILL_BASE ? hits : hits + spill.get(cell);
+	}
+
+	private void addHits(MappedByteBuffer chunk, int offset, long cell, long hits) {
+		if (wide) {
+			chunk.putLong(offset, chunk.getLong(offset) + hits);
+			return;
+		}
+		long sum = chunk.getInt(offset) + hits;
+		if (sum < Integer.MAX_VALUE) {
+			chunk.putInt(offset, (int) sum);
+		} else {
+			spill.add(cell, sum - HitCounts.SPILL_BASE);
+			chunk.putInt(offset, HitCounts.SPILL_BASE);
+		}
+	}
+
+	private void setHits(MappedByteBuffer chunk, int offset, long cell, long hits) {
+		if (hits < 0) {
+			throw new IllegalArgumentException("Negative hit count " + hits);
+		}
+		if (wide) {
+			chunk.putLong(offset, hits);
+		} else if (hits < HitCounts.SPILL_BASE) {
+			if (chunk.getInt(offset) >= HitCounts.SPILL_BASE) {
+				spill.set(cell, 0);
+			}
+			chunk.putInt(offset, (int) hits);
+		} else {
+			chunk.putInt(offset, HitCounts.SPILL_BASE);
+			spill.set(cell, hits - HitCounts.SPILL_BASE);
+		}
+	}
+
+	public long getCount(int x, int y) {
+		return getHits(chunk(y), offset(x, y), cell(x, y));
+	}
+
+	public double getRed(int x, int y) {
+		if (indexed) {
+			return lookUpRed(x, y);
+		}
+		return getChannel(chunk(y), offset(x, y) + countSize);
+	}
+
+	public double getGreen(int x, int y) {
+		if (indexed) {
+			return lookUpGreen(x, y);
+		}
+		return getChannel(chunk(y), offset(x, y) + countSize + channelSize);
+	}
+
+	public double getBlue(int x, int y) {
+		if (indexed) {
+			return lookUpBlue(x, y);
+		}
+		return getChannel(chunk(y), offset(x, y) + countSize + 2 * channelSize);
+	}
+
+	public double getIndex(int x, int y) {
+		if (!indexed) {
+			return super.getIndex(x, y);
+		}
+		return getChannel(chunk(y), offset(x, y) + countSize);
+	}
+
+	public void add(int x, int y, double r, double g, double b) {
+		if (indexed) {
+			throw new UnsupportedOperationException("The histogram is indexed");
+		}
+		MappedByteBuffer chunk = chunk(y);
+		int o = offset(x, y);
+		addHits(chunk, o, cell(x, y), 1);
+		addChannel(chunk, o + countSize, r);
+		addChannel(chunk, o + countSize + channelSize, g);
+		addChannel(chunk, o + countSize + 2 * channelSize, b);
+	}
+
+	public void set(int x, int y, long hits, double r, double g, double b) {
+		if (indexed) {
+			throw new UnsupportedOperationException("The histogram is indexed");
+		}
+		MappedByteBuffer chunk = chunk(y);
+		int o = offset(x, y);
+		setHits(chunk, o, cell(x, y), hits);
+		setChannel(chunk, o + countSize, r);
+		setChannel(chunk, o + countSize + channelSize, g);
+		setChannel(chunk, o + countSize + 2 * channelSize, b);
+	}
+
+	public void add(int x, int y, double index) {
+		if (!indexed) {
+			throw new UnsupportedOperationException("The histogram is not indexed");
+		}
+		MappedByteBuffer chunk = chunk(y);
+		int o = offset(x, y);
+		addHits(chunk, o, cell(x, y), 1);
+		addChannel(chunk, o + countSize, index);
+	}
+
+	public void set(int x, int y, long hits, double index) {
+		if (!indexed) {
+			throw new UnsupportedOperationException("The histogram is not indexed");
+		}
+		MappedByteBuffer chunk = chunk(y);
+		int o = offset(x, y);
+		setHits(chunk, o, cell(x, y), hits);
+		setChannel(chunk, o + countSize, index);
+	}
+
+	public void add(Histogram other, int fromRow, int toRow) {
+		if (!(other instanceof MappedHistogram)) {
+			super.add(other, fromRow, toRow);
+			return;
+		}
+		MappedHistogram o = (MappedHistogram) other;
+		for (int y = fromRow; y < toRow; y++) {
+			MappedByteBuffer chunk = chunk(y);
+			MappedByteBuffer otherChunk = o.chunk(y);
+			for (int x = 0, offset = offset(0, y); x < width; x++, offset += recordSize) {
+				long hits = o.getHits(otherChunk, offset, cell(x, y));
+				if (hits != 0) {
+					addHits(chunk, offset, cell(x, y), hits);
+					for (int c = countSize; c < recordSize; c += channelSize) {
+						addChannel(chunk, offset + c, o.getChannel(otherChunk, offset + c));
+					}
+				}
+			}
+		}
+	}
+
+	public void clear(int fromRow, int toRow) {
+		for (int y = fromRow; y < toRow; y++) {
+			MappedByteBuffer chunk = chunk(y);
+			int limit = offset(0, y) + width * recordSize;
+			int i = offset(0, y);
+			for (; i + 8 <= limit; i += 8) {
+				chunk.putLong(i, 0);
+			}
+			for (; i < limit; i += 4) {
+				chunk.putInt(i, 0);
+			}
+		}
+		if (spill != null) {
+			spill.clear(cell(0, fromRow), cell(0, toRow));
+		}
+	}
+}
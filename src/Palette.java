@@ -0,0 +1,129 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A gradient of colors that color indices in [0, 1] are looked up in.
+ *
+ * With palette coloring every flame function has a color index rather than
+ * a color, and the histogram only sums the indices of its hits. The colors
+ * are looked up in a palette when tone mapping, so the palette can be changed
+ * without playing the chaos game again.
+ */
+public class Palette {
+	// The number of entries the gradient is sampled at.
+	public static final int SIZE = 256;
+
+	// The names of the built in palettes, besides the palette of a flame's own function colors.
+	public static final String[] NAMES = {"fire", "ice", "gray"};
+
+	private final float[] red = new float[SIZE];
+	private final float[] green = new float[SIZE];
+	private final float[] blue = new float[SIZE];
+
+	/**
+	 * A gradient that blends linearly between the colors, which are placed at
+	 * the given positions in [0, 1]. The positions must be in increasing order,
+	 * and the gradient keeps the first and last color beyond them.
+	 */
+	public Palette(Color[] colors, double[] positions) {
+		if (colors.length == 0 || colors.length != positions.length) {
+			throw new IllegalArgumentException("A palette needs one position for each of at least one color");
+		}
+		for (int i = 0, k = 0; i < SIZE; i++) {
+			double index = i / (double) (SIZE - 1);
+			while (k < positions.length && positions[k] <= index) {
+				k++;
+			}
+			// Blend between colors k - 1 and k, or keep the color at either end.
+			Color from = colors[Math.max(k - 1, 0)];
+			Color to = colors[Math.min(k, colors.length - 1)];
+			double u = 0;
+			if (k > 0 && k < positions.length) {
+				u = (index - positions[k - 1]) / (positions[k] - positions[k - 1]);
+			}
+			red[i] = (float) ((from.getRed() + (to.getRed() - from.getRed()) * u) / 255);
+			green[i] = (float) ((from.getGreen() + (to.getGreen() - from.getGreen()) * u) / 255);
+			blue[i] = (float) ((from.getBlue() + (to.getBlue() - from.getBlue()) * u) / 255);
+		}
+	}
+
+	/**
+	 * A gradient through the colors of the functions, each placed at its color index.
+	 */
+	public static Palette fromFunctions(FlameFunction[] functions) {
+		FlameFunction[] sorted = functions.clone();
+		Arrays.sort(sorted, new Comparator<FlameFunction>() {
+			@Override
+			public int compare(FlameFunction a, FlameFunction b) {
+				return Double.compare(a.colorIndex, b.colorIndex);
+			}
+		});
+		Color[] colors = new Color[sorted.length];
+		double[] positions = new double[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			colors[i] = sorted[i].color;
+			positions[i] = sorted[i].colorIndex;
+		}
+		return new Palette(colors, positions);
+	}
+
+	/**
+	 * One of the built in palettes.
+	 *
+	 * @throws IllegalArgumentException If there is no palette of that name.
+	 */
+	public static Palette named(String name) {
+		switch (name) {
+		case "fire":
+			return new Palette(new Color[] {new Color(64, 0, 0), new Color(224, 32, 0), new Color(255, 160, 0), new Color(255, 255, 192)},
+					new double[] {0, 0.35, 0.7, 1});
+		case "ice":
+			return new Palette(new Color[] {new Color(0, 16, 64), new Color(0, 96, 192), new Color(96, 208, 255), Color.WHITE},
+					new double[] {0, 0.35, 0.7, 1});
+		case "gray":
+			return new Palette(new Color[] {new Color(64, 64, 64), Color.WHITE}, new double[] {0, 1});
+		default:
+			throw new IllegalArgumentException("There is no palette called " + name);
+		}
+	}
+
+	private static int entry(double index) {
+		// NaN falls through to the first entry.
+		return index >= 1 ? SIZE - 1 : index > 0 ? (int) (index * (SIZE - 1) + 0.5) : 0;
+	}
+
+	/**
+	 * The red component, in [0, 1], of the color at the index.
+	 */
+	public double getRed(double index) {
+		return red[entry(index)];
+	}
+
+	public double getGreen(double index) {
+		return green[entry(index)];
+	}
+
+	public double getBlue(double index) {
+		return blue[entry(index)];
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Reports the progress and estimated time remaining of a renderer's chaos game.
+ *
+ * The workers of the renderer only publish how many iterations they have done,
+ * and never call out to a listener themselves. Instead sample() is called
+ * periodically from some other thread, such as by a Swing timer on the event
+ * dispatch thread, and it passes the progress on to the listener on that thread.
+ * The remaining time is estimated from a smoothed rate of iterations per second.
+ */
+public class ProgressSampler {
+	// How much of the rate estimate each new sample replaces.
+	private static final double SMOOTHING = 0.3;
+
+	private final Renderer renderer;
+	private final ProgressListener listener;
+
+	// The previous sample, if the chaos game was being played when it was taken.
+	private boolean sampling;
+	private long lastTime;
+	private long lastDone;
+
+	// The estimated number of iterations per millisecond, or 0 if not known yet.
+	private double rate;
+
+	public ProgressSampler(Renderer renderer, ProgressListener listener) {
+		this.renderer = renderer;
+		this.listener = listener;
+	}
+
+	/**
+	 * Report the current progress of the renderer to the listener, if it is playing the chaos game.
+	 */
+	public void sample() {
+		if (!renderer.isIterating()) {
+			sampling = false;
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long from = renderer.getIterationsFrom();
+		long to = renderer.getIterationsTo();
+		long done = Math.max(Math.min(renderer.getIterationsPublished(), to), from);
+
+		if (!sampling) {
+			// A new chaos game has started, so the previous rate no longer applies.
+			sampling = true;
+			rate = 0;
+		} else if (now > lastTime && done >= lastDone) {
+			double current = (done - lastDone) / (double) (now - lastTime);
+			rate = rate == 0 ? current : rate + SMOOTHING * (current - rate);
+		}
+		lastTime = now;
+		lastDone = done;
+
+		listener.progress(to > from ? (int) ((done - from) * 1000 / (to - from)) : 0);
+		if (rate > 0) {
+			long remaining = (long) Math.ceil((to - done) / rate / 1000);
+			listener.status("Estimated time remaining: " + remaining + " seconds.");
+		}
+	}
+}
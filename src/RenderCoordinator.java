@@ -0,0 +1,293 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders a flame by playing the chaos game on a number of RenderWorker processes.
+ *
+ * The iterations of the render are split into chunks, each of which is played
+ * with its own random seed, so the chunks are different parts of the same game.
+ * Every worker is sent one chunk at a time. The histogram it sends back is read
+ * into a sparse buffer of the connection, so that a worker failing part way
+ * through leaves the result untouched, and then added into the coordinator's
+ * histogram, which is tone mapped once all the chunks are done. The buffer only
+ * holds the tiles the chunk hit, and gives them back once it has been added, so
+ * the connections do not each hold a copy of the histogram. The chunk of a
+ * worker that fails is handed to another one. If a worker gives up on a chunk,
+ * because hardly any of its points land in the histogram, the whole render is
+ * given up on.
+ */
+public class RenderCoordinator {
+	private final List<InetSocketAddress> addresses;
+	private long chunkSize = 0;
+	private ProgressListener listener;
+
+	// The chunks that still need to be played, and the state of the render.
+	private final ArrayDeque<Integer> pending = new ArrayDeque<>();
+	private int numChunks;
+	private int completed;
+	// Why the render was given up on, because a worker gave up on a chunk, or null.
+	private String hopelessReason;
+
+	public RenderCoordinator(List<InetSocketAddress> addresses) {
+		if (addresses.isEmpty()) {
+			throw new IllegalArgumentException("A distributed render needs at least one worker");
+		}
+		this.addresses = new ArrayList<>(addresses);
+	}
+
+	/**
+	 * @param chunkSize The number of iterations per chunk, or 0 to give every worker about four chunks.
+	 */
+	public void setChunkSize(long chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public void setProgressListener(ProgressListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Render the flame into the image with the settings of the renderer, playing
+	 * the chaos game on the workers and tone mapping with the renderer.
+	 *
+	 * @return The number of pixels drawn.
+	 */
+	public long render(Flame flame, Renderer renderer, BufferedImage image) throws IOException, InterruptedException {
+		long numIterations = renderer.getNumIterations();
+		long size = chunkSize > 0 ? chunkSize : Math.max(numIterations / (addresses.size() * 4), 1);
+		int ss = renderer.getSuperSampleSize();
+		Histogram histogram = Histogram.create(renderer.getWidth() * ss, renderer.getHeight() * ss,
+				renderer.getStorage(flame), renderer.isSinglePrecision(), renderer.isPaletteColoring(), renderer.getCounters());
+
+		if ((numIterations + size - 1) / size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Chunks of " + size + " iterations are too small for " + numIterations + " iterations");
+		}
+
+		// Draw the random seeds of the chunks from the flame's seed, so that a render is repeatable.
+		numChunks = (int) ((numIterations + size - 1) / size);
+		long[] seeds = new long[numChunks];
+		FastRandom random = new FastRandom(flame.getSeed());
+		for (int k = 0; k < numChunks; k++) {
+			seeds[k] = random.nextLong();
+		}
+		synchronized (this) {
+			pending.clear();
+			for (int k = 0; k < numChunks; k++) {
+				pending.add(k);
+			}
+			completed = 0;
+			hopelessReason = null;
+		}
+		progress(0);
+		status("Playing " + numChunks + " chunks on " + addresses.size() + " workers...");
+
+		ExecutorService connections = Executors.newFixedThreadPool(addresses.size());
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (InetSocketAddress address : addresses) {
+				futures.add(connections.submit(new Connection(address, flame, renderer, histogram, seeds, size, numIterations)));
+			}
+			IOException failure = null;
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = new IOException("Lost workers during the render");
+					}
+					failure.addSuppressed(e.getCause());
+				}
+			}
+			synchronized (this) {
+				if (hopelessReason != null) {
+					status(hopelessReason);
+					return 0;
+				}
+				if (completed < numChunks) {
+					throw failure != null ? failure : new IOException("The render was not completed");
+				}
+			}
+		} finally {
+			// Interrupting the connections closes their sockets.
+			connections.shutdownNow();
+		}
+
+		status("Rendering...");
+		histogram.setPalette(renderer.getPalette(flame));
+		long count = renderer.toneMap(histogram, image);
+		progress(1000);
+		status("Rendered " + count + " pixels at zoom level " + renderer.getZoom());
+		return count;
+	}
+
+	/**
+	 * Whether the last render was given up on, because hardly any of the points
+	 * of one of its chunks landed in the histogram. The image is not drawn then.
+	 */
+	public synchronized boolean isHopeless() {
+		return hopelessReason != null;
+	}
+
+	/**
+	 * Why the last render was given up on, or null if it was not.
+	 */
+	public synchronized String getHopelessReason() {
+		return hopelessReason;
+	}
+
+	/**
+	 * The next chunk to play, waiting while other workers may still hand theirs
+	 * back, or -1 if there are none left or the render was given up on.
+	 */
+	private synchronized int take() throws InterruptedException {
+		while (pending.isEmpty() && completed < numChunks && hopelessReason == null) {
+			wait();
+		}
+		return pending.isEmpty() || hopelessReason != null ? -1 : pending.poll();
+	}
+
+	/**
+	 * Give up on the render, as a worker gave up on one of its chunks, and let the other workers stop.
+	 */
+	private synchronized void giveUp(long iterations, long badPoints, long outOfView) {
+		if (hopelessReason == null) {
+			double hitRate = iterations > 0 ? (iterations - badPoints - outOfView) / (double) iterations : 0;
+			hopelessReason = String.format(
+					"Gave up on a chunk after %d iterations: only %.2f%% of the points were in view (%d diverged, %d out of view)",
+					iterations, hitRate * 100, badPoints, outOfView);
+		}
+		notifyAll();
+	}
+
+	private synchronized void complete() {
+		completed++;
+		progress((int) (completed * 1000L / numChunks));
+		status("Played " + completed + " of " + numChunks + " chunks");
+		notifyAll();
+	}
+
+	/**
+	 * Hand a chunk back after its worker has failed, for one of the other workers to play.
+	 */
+	private synchronized void giveBack(int chunk) {
+		if (chunk >= 0) {
+			pending.add(chunk);
+		}
+		notifyAll();
+	}
+
+	private void progress(int value) {
+		if (listener != null) {
+			listener.progress(value);
+		}
+	}
+
+	private void status(String message) {
+		if (listener != null) {
+			listener.status(message);
+		}
+	}
+
+	/**
+	 * The connection to a single worker, which plays chunks until there are none left.
+	 */
+	private class Connection implements Callable<Void> {
+		private final InetSocketAddress address;
+		private final Flame flame;
+		private final Renderer renderer;
+		private final Histogram histogram;
+		private final long[] seeds;
+		private final long size;
+		private final long numIterations;
+
+		public Connection(InetSocketAddress address, Flame flame, Renderer renderer, Histogram histogram,
+				long[] seeds, long size, long numIterations) {
+			this.address = address;
+			this.flame = flame;
+			this.renderer = renderer;
+			this.histogram = histogram;
+			this.seeds = seeds;
+			this.size = size;
+			this.numIterations = numIterations;
+		}
+
+		@Override
+		public Void call() throws IOException, InterruptedException {
+			int chunk = -1;
+			Histogram buffer = new SparseHistogram(histogram.getWidth(), histogram.getHeight(),
+					histogram.isSinglePrecision(), histogram.isIndexed(), histogram.getCounters());
+			try (SocketChannel channel = SocketChannel.open(address)) {
+				CheckpointOutput out = new CheckpointOutput(channel);
+				CheckpointInput in = new CheckpointInput(channel);
+				out.putLong(CheckpointOutput.MAGIC);
+				out.putInt(CheckpointOutput.VERSION);
+				while ((chunk = take()) >= 0) {
+					out.putInt(RenderWorker.JOB);
+					out.putInt(renderer.getWidth());
+					out.putInt(renderer.getHeight());
+					out.putInt(renderer.getSuperSampleSize());
+					out.putInt(renderer.getZoom());
+					out.putBoolean(renderer.isSinglePrecision());
+					out.putBoolean(renderer.isPaletteColoring());
+					out.putBoolean(renderer.getCounters() == HitCounts.Width.WIDE);
+					out.putInt(histogram.getStorage().ordinal());
+					flame.writeTo(out);
+					out.putLong(seeds[chunk]);
+					out.putLong(Math.min(size, numIterations - chunk * size));
+					out.flush();
+
+					boolean hopeless = in.getBoolean();
+					long iterations = in.getLong();
+					long badPoints = in.getLong();
+					long outOfView = in.getLong();
+					buffer.addFrom(in);
+					if (hopeless) {
+						buffer.clear();
+						giveUp(iterations, badPoints, outOfView);
+						continue;
+					}
+					// Only one chunk is added to the histogram at a time.
+					synchronized (histogram) {
+						histogram.add(buffer, 0, buffer.getHeight());
+					}
+					buffer.clear();
+					complete();
+				}
+				out.putInt(RenderWorker.DONE);
+				out.flush();
+				return null;
+			} catch (IOException | RuntimeException e) {
+				giveBack(chunk);
+				throw e;
+			}
+		}
+	}
+}
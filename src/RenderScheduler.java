@@ -0,0 +1,206 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+/**
+ * Runs the renders of the GUI on a thread of its own, coalescing requests that
+ * come in quick succession.
+ *
+ * Dragging a slider or typing in a field asks for a render at every step.
+ * Rather than starting a render for each of them, requests are collected until
+ * none has come for DEBOUNCE milliseconds, or the first of them has waited
+ * MAX_DELAY milliseconds, and are then served by a single render. Renders run
+ * one at a time, and the next one only starts once the previous one has
+ * returned, so two renders never work on the renderer's buffers at once.
+ *
+ * A request either plays the chaos game again, or only tone maps the
+ * histogram again for settings such as the gamma. A request to play the game
+ * interrupts the render in progress, as its result would be stale. A request
+ * to tone map interrupts a game too, so that it is shown within MAX_DELAY and
+ * a tone mapping, however long the game takes. The histogram the game has
+ * played so far is tone mapped, and the game then carries on where it stopped.
+ * Tone mappings do not interrupt each other, so dragging a slider that only
+ * changes the tone mapping shows a new preview after every one of them.
+ * Refining runs until it is interrupted by any other request.
+ */
+public class RenderScheduler {
+	// How long to wait for more requests, and the longest to hold back the first one, in milliseconds.
+	private static final long DEBOUNCE = 40;
+	private static final long MAX_DELAY = 150;
+
+	/**
+	 * What the scheduler renders. It is only called from the scheduler's thread.
+	 */
+	public interface Target {
+		/**
+		 * Render with the current settings.
+		 *
+		 * @param recalculate Whether to play the chaos game, or only tone map the histogram.
+		 */
+		public void render(boolean recalculate) throws InterruptedException;
+
+		/**
+		 * Keep refining the render with the current settings until interrupted.
+		 */
+		public void refine() throws InterruptedException;
+	}
+
+	// The kinds of requests, where a request to play the game stands in for a request to tone map.
+	private enum Kind {
+		TONE_MAP, ITERATE, REFINE
+	}
+
+	private final Target target;
+	private final Thread thread;
+
+	// The request waiting to be served and when the first and last of the requests it stands
+	// for came in, and the kind of render that is running, or null. Guarded by this.
+	private Kind pending;
+	private long firstRequest;
+	private long lastRequest;
+	private Kind running;
+
+	// Whether a game was interrupted by a request to tone map, and is to carry on once the
+	// tone mapping is done. Guarded by this.
+	private boolean resume;
+
+	public RenderScheduler(Target target) {
+		this.target = target;
+		thread = new Thread("Render scheduler") {
+			@Override
+			public void run() {
+				serve();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Ask for a render with the current settings.
+	 *
+	 * @param recalculate Whether to play the chaos game, or only tone map the histogram.
+	 */
+	public void render(boolean recalculate) {
+		request(recalculate ? Kind.ITERATE : Kind.TONE_MAP);
+	}
+
+	/**
+	 * Ask to keep refining the render until the next request.
+	 */
+	public void refine() {
+		request(Kind.REFINE);
+	}
+
+	/**
+	 * Drop the waiting request, and interrupt the render that is running.
+	 */
+	public synchronized void cancel() {
+		pending = null;
+		resume = false;
+		if (running != null) {
+			thread.interrupt();
+		}
+	}
+
+	private synchronized void request(Kind kind) {
+		long now = System.currentTimeMillis();
+		if (pending == null) {
+			firstRequest = now;
+		}
+		lastRequest = now;
+		// A render replaces a refine, and otherwise the stronger of the requests wins.
+		if (pending == null || pending == Kind.REFINE || kind == Kind.REFINE || kind.compareTo(pending) > 0) {
+			pending = kind;
+		}
+		if (kind == Kind.TONE_MAP && running == Kind.ITERATE) {
+			resume = true;
+		}
+		if (running != null && (kind != Kind.TONE_MAP || running != Kind.TONE_MAP)) {
+			thread.interrupt();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Wait for the next request to be due, and take it.
+	 */
+	private synchronized Kind take() throws InterruptedException {
+		while (true) {
+			if (pending == null) {
+				wait();
+				continue;
+			}
+			long delay = Math.min(lastRequest + DEBOUNCE, firstRequest + MAX_DELAY) - System.currentTimeMillis();
+			if (delay <= 0) {
+				Kind kind = pending;
+				pending = null;
+				running = kind;
+				if (kind != Kind.TONE_MAP) {
+					// The game is played anyway.
+					resume = false;
+				}
+				return kind;
+			}
+			wait(delay);
+		}
+	}
+
+	private void serve() {
+		while (true) {
+			Kind kind;
+			try {
+				kind = take();
+			} catch (InterruptedException e) {
+				// The thread is only interrupted while rendering.
+				continue;
+			}
+
+			boolean completed = false;
+			try {
+				if (kind == Kind.REFINE) {
+					target.refine();
+				} else {
+					target.render(kind == Kind.ITERATE);
+				}
+				completed = true;
+			} catch (InterruptedException e) {
+				// Superseded by a newer request, or cancelled.
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+
+			synchronized (this) {
+				running = null;
+				// An interrupt that came too late to stop the render must not stop the next one.
+				Thread.interrupted();
+				if (kind == Kind.ITERATE && completed) {
+					// The interrupt came too late, and the game is done.
+					resume = false;
+				}
+				// Carry on with the game the tone mapping interrupted, unless another request is waiting.
+				if (kind == Kind.TONE_MAP && resume && pending == null) {
+					resume = false;
+					pending = Kind.ITERATE;
+					firstRequest = System.currentTimeMillis() - MAX_DELAY;
+					lastRequest = firstRequest;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,630 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A long running render service, which renders flames one after the other from a queue of jobs.
+ *
+ * Rendering many flames in one process saves starting a JVM for each of them,
+ * and lets all but the first run on code the JIT has already compiled. Jobs
+ * are submitted over HTTP on the loopback interface, and are run in order of
+ * priority, and in the order they were submitted within a priority. Renderers
+ * are pooled by the size of their histogram, so that jobs of the same size
+ * reuse the histograms of the renderer and its workers rather than allocating
+ * new ones. A running job is cancelled by interrupting it, like any other render.
+ *
+ *   POST /jobs?seed=42&size=800x600&priority=1   submit a job, and get its id back
+ *   GET /jobs                                    list the jobs
+ *   GET /jobs/{id}                               the state and progress of a job
+ *   GET /jobs/{id}/image                         the PNG image of a finished job
+ *   DELETE /jobs/{id}                            cancel a job
+ *
+ * The parameters of a job can also be sent as a form in the body of the POST.
+ *
+ * Usage: java -cp FlameFractals.jar RenderServer [options]
+ */
+public class RenderServer {
+	public static final int DEFAULT_PORT = 7466;
+
+	// The number of renderers of different sizes that are kept, and the number of finished jobs.
+	private static final int POOLED_RENDERERS = 2;
+	private static final int FINISHED_JOBS = 32;
+
+	public enum State {
+		QUEUED, RUNNING, DONE, FAILED, CANCELLED
+	}
+
+	/**
+	 * A flame to render, with the settings to render it with.
+	 */
+	private static class Job implements Comparable<Job>, ProgressListener {
+		// Set when the job is queued.
+		long id;
+		int priority = 0;
+		long seed = System.currentTimeMillis();
+		int width = 1024;
+		int height = 768;
+		int superSampleSize = 3;
+		long numIterations = 100000L;
+		double gamma = 2.2;
+		int densityRadius = 0;
+		Downsampler.Filter filter = Downsampler.Filter.BOX;
+		boolean paletteColoring = false;
+		Palette palette = null;
+		int zoom = 1;
+		boolean singlePrecision = false;
+		HitCounts.Width counters = HitCounts.Width.COMPACT;
+		Flame flame;
+
+		// Guarded by the server.
+		State state = State.QUEUED;
+		String error;
+		byte[] image;
+
+		// The progress of the render, as reported by its renderer or by the sampler.
+		volatile int progress;
+		volatile String status = "Queued";
+		volatile ProgressSampler sampler;
+
+		/**
+		 * @throws IllegalArgumentException If a parameter is unknown or invalid.
+		 */
+		Job(Map<String, String> parameters) {
+			double[] functionWeights = null;
+			double[][] xaos = null;
+			for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+				String value = parameter.getValue();
+				switch (parameter.getKey()) {
+				case "priority":
+					priority = Integer.parseInt(value);
+					break;
+				case "seed":
+					seed = Long.parseLong(value);
+					break;
+				case "size":
+					String[] size = value.split("x");
+					if (size.length != 2) {
+						throw new IllegalArgumentException("The size must be given as <width>x<height>");
+					}
+					width = Integer.parseInt(size[0]);
+					height = Integer.parseInt(size[1]);
+					break;
+				case "supersample":
+					superSampleSize = Integer.parseInt(value);
+					break;
+				case "iterations":
+					numIterations = (long) Double.parseDouble(value);
+					break;
+				case "gamma":
+					gamma = Double.parseDouble(value);
+					break;
+				case "density":
+					densityRadius = Integer.parseInt(value);
+					break;
+				case "filter":
+					filter = Downsampler.Filter.valueOf(value.toUpperCase());
+					break;
+				case "palette":
+					paletteColoring = true;
+					palette = value.equals("flame") ? null : Palette.named(value);
+					break;
+				case "weights":
+					functionWeights = BatchRender.parseList(value);
+					break;
+				case "xaos":
+					String[] rows = value.split(";");
+					xaos = new double[rows.length][];
+					for (int r = 0; r < rows.length; r++) {
+						xaos[r] = BatchRender.parseList(rows[r]);
+					}
+					break;
+				case "zoom":
+					zoom = Integer.parseInt(value);
+					break;
+				case "single":
+					singlePrecision = Boolean.parseBoolean(value);
+					break;
+				case "wide":
+					counters = Boolean.parseBoolean(value) ? HitCounts.Width.WIDE : HitCounts.Width.COMPACT;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown parameter " + parameter.getKey());
+				}
+			}
+			if (width < 1 || height < 1 || superSampleSize < 1 || numIterations < 0) {
+				throw new IllegalArgumentException("Invalid size, supersample size or iterations");
+			}
+			if (zoom < 1 || zoom > Renderer.MAX_ZOOM) {
+				throw new IllegalArgumentException("Zoom must be between 1 and " + Renderer.MAX_ZOOM);
+			}
+
+			flame = new Flame(seed);
+			int n = flame.getNumFunctions();
+			if ((functionWeights != null && functionWeights.length != n) || (xaos != null && xaos.length != n)) {
+				throw new IllegalArgumentException("The flame has " + n + " functions");
+			}
+			for (int f = 0; f < n; f++) {
+				if (functionWeights != null) {
+					flame.setFunctionWeight(f, functionWeights[f]);
+				}
+				if (xaos != null) {
+					flame.setXaos(f, xaos[f]);
+				}
+			}
+		}
+
+		void configure(Renderer renderer) {
+			renderer.setSize(width, height);
+			renderer.setSuperSampleSize(superSampleSize);
+			renderer.setNumIterations(numIterations);
+			renderer.setGamma(gamma);
+			renderer.setDensityRadius(densityRadius);
+			renderer.setFilter(filter);
+			renderer.setPaletteColoring(paletteColoring);
+			renderer.setPalette(palette);
+			renderer.setZoom(zoom);
+			renderer.setSinglePrecision(singlePrecision);
+			renderer.setCounters(counters);
+			renderer.setRandomSeed(null);
+			renderer.setProgressListener(this);
+		}
+
+		@Override
+		public void progress(int value) {
+			progress = value;
+		}
+
+		@Override
+		public void status(String message) {
+			status = message;
+		}
+
+		/**
+		 * Higher priorities first, and earlier jobs first within a priority.
+		 */
+		@Override
+		public int compareTo(Job other) {
+			if (priority != other.priority) {
+				return priority > other.priority ? -1 : 1;
+			}
+			return Long.compare(id, other.id);
+		}
+	}
+
+	private final ExecutorService workers;
+	private final int numThreads;
+	private final Histogram.Storage storage;
+
+	private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+	// All the jobs by id, in the order they were submitted, and the id of the next one. Guarded by this.
+	private final Map<Long, Job> jobs = new LinkedHashMap<>();
+	private long nextId = 1;
+
+	// The job being rendered, and the thread rendering it. Guarded by this.
+	private Job running;
+	private Thread dispatcher;
+
+	// Renderers by the size of their histogram, least recently used first. Only used by the dispatcher.
+	private final Map<String, Renderer> renderers = new LinkedHashMap<String, Renderer>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Renderer> eldest) {
+			return size() > POOLED_RENDERERS;
+		}
+	};
+	// The heap held by the histograms of the pooled renderers, by size, in the same order. Guarded by this.
+	private final Map<String, Double> pooledBytes = new LinkedHashMap<>(16, 0.75f, true);
+
+	public RenderServer(ExecutorService workers, int numThreads, Histogram.Storage storage) {
+		this.workers = workers;
+		this.numThreads = numThreads;
+		this.storage = storage;
+	}
+
+	/**
+	 * Queue a job.
+	 *
+	 * @return The id of the job.
+	 * @throws IllegalArgumentException If a parameter is unknown or invalid.
+	 */
+	public long submit(Map<String, String> parameters) {
+		Job job = new Job(parameters);
+		checkMemory(job);
+		synchronized (this) {
+			job.id = nextId++;
+			jobs.put(job.id, job);
+			forgetFinishedJobs();
+			queue.add(job);
+		}
+		return job.id;
+	}
+
+	/**
+	 * Reject a job that would not fit in the heap, counting its image and, unless
+	 * they are mapped, the histograms of all the threads as if they were dense.
+	 * The histograms the pooled renderers of other sizes hold on to are counted
+	 * too, except for the one a new size would push out of the pool.
+	 *
+	 * @throws IllegalArgumentException If the job is too large.
+	 */
+	private void checkMemory(Job job) {
+		long pixels = (long) job.width * job.height;
+		if (pixels > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A " + job.width + "x" + job.height + " image is too large");
+		}
+		// In doubles, as a silly supersample size could overflow a long.
+		double bytes = pixels * 4.0 + histogramBytes(job);
+		String size = poolKey(job);
+		synchronized (this) {
+			boolean evicts = !pooledBytes.containsKey(size) && pooledBytes.size() >= POOLED_RENDERERS;
+			for (Map.Entry<String, Double> entry : pooledBytes.entrySet()) {
+				if (evicts) {
+					// The least recently used renderer comes first.
+					evicts = false;
+				} else if (!entry.getKey().equals(size)) {
+					bytes += entry.getValue();
+				}
+			}
+		}
+		long available = Runtime.getRuntime().maxMemory();
+		if (bytes > available) {
+			throw new IllegalArgumentException(String.format("The job needs about %.0f MB, more than the %d MB heap",
+					bytes / (1 << 20), available >> 20));
+		}
+	}
+
+	/**
+	 * The heap the histograms of all the threads take for a job, as if they were
+	 * dense, or nothing if they are mapped.
+	 */
+	private double histogramBytes(Job job) {
+		if (storage == Histogram.Storage.MAPPED) {
+			return 0;
+		}
+		double cells = (double) job.width * job.height * job.superSampleSize * job.superSampleSize;
+		int cellSize = (job.counters == HitCounts.Width.WIDE ? 8 : 4)
+				+ (job.paletteColoring ? 1 : 3) * (job.singlePrecision ? 4 : 8);
+		return cells * cellSize * numThreads;
+	}
+
+	/**
+	 * The size by which the renderer for a job is pooled.
+	 */
+	private static String poolKey(Job job) {
+		return job.width + "x" + job.height + "x" + job.superSampleSize;
+	}
+
+	/**
+	 * Cancel a job. A queued job is taken off the queue, and a running job is interrupted.
+	 *
+	 * @return Whether the job was queued or running.
+	 */
+	public synchronized boolean cancel(long id) {
+		Job job = jobs.get(id);
+		if (job == null || (job.state != State.QUEUED && job.state != State.RUNNING)) {
+			return false;
+		}
+		if (job.state == State.QUEUED) {
+			// The dispatcher may have taken the job already, and then skips it.
+			queue.remove(job);
+		} else if (job == running) {
+			dispatcher.interrupt();
+		}
+		job.state = State.CANCELLED;
+		job.status = "Cancelled";
+		return true;
+	}
+
+	/**
+	 * Drop the oldest finished jobs, with their images, beyond the number that are kept.
+	 */
+	private void forgetFinishedJobs() {
+		int finished = 0;
+		for (Job job : jobs.values()) {
+			if (job.state != State.QUEUED && job.state != State.RUNNING) {
+				finished++;
+			}
+		}
+		for (Iterator<Job> it = jobs.values().iterator(); it.hasNext() && finished > FINISHED_JOBS;) {
+			Job job = it.next();
+			if (job.state != State.QUEUED && job.state != State.RUNNING) {
+				it.remove();
+				finished--;
+			}
+		}
+	}
+
+	/**
+	 * Render the queued jobs one after the other, until interrupted while waiting for one.
+	 */
+	public void dispatch() {
+		while (true) {
+			Job job;
+			try {
+				job = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			synchronized (this) {
+				if (job.state != State.QUEUED) {
+					continue;
+				}
+				job.state = State.RUNNING;
+				running = job;
+				dispatcher = Thread.currentThread();
+			}
+
+			byte[] image = null;
+			String error = null;
+			try {
+				image = render(job);
+				if (image == null) {
+					// The flame was given up on, and the renderer's status says why.
+					error = job.status;
+				}
+			} catch (InterruptedException e) {
+				// The job was cancelled.
+			} catch (Throwable e) {
+				// Whatever goes wrong, such as running out of memory, fails the job but not the server.
+				error = e.toString();
+			}
+
+			synchronized (this) {
+				running = null;
+				// A cancel that came too late to stop the render must not interrupt the next one.
+				Thread.interrupted();
+				if (job.state == State.RUNNING) {
+					job.state = error == null ? State.DONE : State.FAILED;
+					job.image = image;
+					job.error = error;
+				}
+				job.sampler = null;
+				forgetFinishedJobs();
+			}
+		}
+	}
+
+	/**
+	 * Render a job with the pooled renderer of its size.
+	 *
+	 * @return The image as a PNG file, or null if the flame was given up on as
+	 * hardly any of its points were in view.
+	 */
+	private byte[] render(Job job) throws IOException, InterruptedException {
+		String size = poolKey(job);
+		Renderer renderer = renderers.get(size);
+		if (renderer == null) {
+			renderer = new Renderer(workers);
+			renderer.setNumThreads(numThreads);
+			renderer.setStorage(storage);
+			renderers.put(size, renderer);
+		}
+		synchronized (this) {
+			// The renderer keeps the histograms of this job until it renders another one.
+			pooledBytes.keySet().retainAll(renderers.keySet());
+			pooledBytes.put(size, histogramBytes(job));
+		}
+		job.configure(renderer);
+		job.sampler = new ProgressSampler(renderer, job);
+
+		BufferedImage image = new BufferedImage(job.width, job.height, BufferedImage.TYPE_INT_RGB);
+		renderer.render(job.flame, image, true);
+		if (renderer.isHopeless()) {
+			return null;
+		}
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", png);
+		return png.toByteArray();
+	}
+
+	/**
+	 * A description of a job, one property per line.
+	 */
+	private synchronized String describe(Job job) {
+		ProgressSampler sampler = job.sampler;
+		if (sampler != null) {
+			synchronized (sampler) {
+				sampler.sample();
+			}
+		}
+		StringBuilder text = new StringBuilder();
+		text.append("id ").append(job.id).append('\n');
+		text.append("state ").append(job.state).append('\n');
+		text.append("priority ").append(job.priority).append('\n');
+		text.append("seed ").append(job.seed).append('\n');
+		text.append("progress ").append(job.state == State.DONE ? 100 : job.progress / 10.0).append('\n');
+		text.append("status ").append(job.error != null ? job.error : job.status).append('\n');
+		return text.toString();
+	}
+
+	private synchronized String list() {
+		StringBuilder text = new StringBuilder();
+		for (Job job : jobs.values()) {
+			text.append(job.id).append(' ').append(job.state).append(' ').append(job.priority).append(' ')
+					.append(job.seed).append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Handles the requests under /jobs.
+	 */
+	private class Handler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				String method = exchange.getRequestMethod();
+				String[] path = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+				// The path splits into "", "jobs", and the id and "image" if given.
+				if (path.length == 2) {
+					if (method.equals("GET")) {
+						respond(exchange, 200, list());
+					} else if (method.equals("POST")) {
+						Map<String, String> parameters = parse(exchange.getRequestURI().getRawQuery());
+						parameters.putAll(parse(readBody(exchange)));
+						respond(exchange, 200, submit(parameters) + "\n");
+					} else {
+						respond(exchange, 405, "Use GET or POST\n");
+					}
+					return;
+				}
+
+				Job job;
+				synchronized (RenderServer.this) {
+					job = path.length <= 4 ? jobs.get(Long.parseLong(path[2])) : null;
+				}
+				if (job == null) {
+					respond(exchange, 404, "No such job\n");
+				} else if (path.length == 4 && path[3].equals("image") && method.equals("GET")) {
+					byte[] image;
+					State state;
+					synchronized (RenderServer.this) {
+						image = job.image;
+						state = job.state;
+					}
+					if (image == null) {
+						respond(exchange, 409, "The job is " + state + "\n");
+					} else {
+						exchange.getResponseHeaders().set("Content-Type", "image/png");
+						send(exchange, 200, image);
+					}
+				} else if (path.length == 3 && method.equals("GET")) {
+					respond(exchange, 200, describe(job));
+				} else if (path.length == 3 && method.equals("DELETE")) {
+					respond(exchange, cancel(job.id) ? 200 : 409, describe(job));
+				} else {
+					respond(exchange, 404, "Unknown request\n");
+				}
+			} catch (IllegalArgumentException e) {
+				respond(exchange, 400, e.getMessage() + "\n");
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (InputStream in = exchange.getRequestBody()) {
+			byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) > 0;) {
+				body.write(buffer, 0, n);
+			}
+		}
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parse URL encoded parameters, as found in a query or a form.
+	 */
+	private static Map<String, String> parse(String encoded) throws IOException {
+		Map<String, String> parameters = new HashMap<>();
+		if (encoded == null || encoded.trim().isEmpty()) {
+			return parameters;
+		}
+		for (String parameter : encoded.trim().split("&")) {
+			int equals = parameter.indexOf('=');
+			String name = equals < 0 ? parameter : parameter.substring(0, equals);
+			String value = equals < 0 ? "true" : parameter.substring(equals + 1);
+			parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+		return parameters;
+	}
+
+	private static void respond(HttpExchange exchange, int code, String text) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		send(exchange, code, text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+		exchange.sendResponseHeaders(code, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java -cp FlameFractals.jar RenderServer [options]");
+		System.err.println("  -port <n>         port to listen on, on the loopback interface (default: " + DEFAULT_PORT + ")");
+		System.err.println("  -threads <n>      number of threads (default: number of processors)");
+		Histogram.Storage.printOptions();
+		System.err.println();
+		System.err.println("Jobs are submitted with POST /jobs, with these parameters (defaults as for BatchRender):");
+		System.err.println("  priority, seed, size, supersample, iterations, gamma, density, filter, palette,");
+		System.err.println("  weights, xaos, zoom, single and wide");
+		System.exit(1);
+	}
+
+	public static void main(String args[]) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		int port = DEFAULT_PORT;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		Histogram.Storage storage = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				Histogram.Storage option = Histogram.Storage.fromOption(args[i]);
+				if (option != null) {
+					storage = option;
+					continue;
+				}
+				switch (args[i]) {
+				case "-port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "-threads":
+					numThreads = Integer.parseInt(args[++i]);
+					break;
+				default:
+					usage();
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+		}
+
+		final RenderServer server = new RenderServer(Executors.newCachedThreadPool(), numThreads, storage);
+		HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		http.createContext("/jobs", server.new Handler());
+		http.start();
+		System.out.println("[SERVER] Listening on " + http.getAddress());
+		server.dispatch();
+	}
+}
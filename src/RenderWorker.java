@@ -0,0 +1,160 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays chunks of the chaos game for a RenderCoordinator, and sends back the histograms.
+ *
+ * The coordinator opens a connection and sends the magic number and version
+ * of the checkpoint format, followed by any number of jobs, each of which is
+ * JOB, the size, supersample size, zoom and precision of the render, the
+ * histogram storage the coordinator chose, the flame, the random seed of the
+ * chunk and its number of iterations. The worker answers every job with
+ * whether the chunk was given up on, its numbers of iterations, diverged points
+ * and points out of view, and its histogram in the sparse checkpoint format.
+ * The coordinator ends the session with DONE.
+ *
+ * Usage: java -cp FlameFractals.jar RenderWorker [options]
+ */
+public class RenderWorker {
+	public static final int DEFAULT_PORT = 7465;
+
+	// The messages that start each request from the coordinator.
+	public static final int DONE = 0;
+	public static final int JOB = 1;
+
+	private final ExecutorService workers;
+	private final int numThreads;
+	private final Histogram.Storage storage;
+
+	public RenderWorker(ExecutorService workers, int numThreads, Histogram.Storage storage) {
+		this.workers = workers;
+		this.numThreads = numThreads;
+		this.storage = storage;
+	}
+
+	/**
+	 * Serve the jobs of one coordinator until it is done. The channels may come
+	 * from a socket or from any other transport.
+	 */
+	public void serve(ReadableByteChannel input, WritableByteChannel output) throws IOException, InterruptedException {
+		CheckpointInput in = new CheckpointInput(input);
+		CheckpointOutput out = new CheckpointOutput(output);
+		if (in.getLong() != CheckpointOutput.MAGIC) {
+			throw new IOException("Not a render coordinator");
+		}
+		int version = in.getInt();
+		if (version != CheckpointOutput.VERSION) {
+			throw new IOException("Unsupported protocol version " + version);
+		}
+
+		Renderer renderer = new Renderer(workers);
+		renderer.setNumThreads(numThreads);
+		Histogram.Storage[] storages = Histogram.Storage.values();
+		while (in.getInt() == JOB) {
+			renderer.setSize(in.getInt(), in.getInt());
+			renderer.setSuperSampleSize(in.getInt());
+			renderer.setZoom(in.getInt());
+			renderer.setSinglePrecision(in.getBoolean());
+			renderer.setPaletteColoring(in.getBoolean());
+			renderer.setCounters(in.getBoolean() ? HitCounts.Width.WIDE : HitCounts.Width.COMPACT);
+			int chosen = in.getInt();
+			if (chosen < 0 || chosen >= storages.length) {
+				throw new IOException("Unknown histogram storage " + chosen);
+			}
+			// Use the storage the coordinator chose for the flame, rather than probing it again for every chunk.
+			renderer.setStorage(storage != null ? storage : storages[chosen]);
+			Flame flame = Flame.readFrom(in);
+			renderer.setRandomSeed(in.getLong());
+			renderer.setNumIterations(in.getLong());
+
+			renderer.play(flame);
+			out.putBoolean(renderer.isHopeless());
+			out.putLong(renderer.getIterationsDone());
+			out.putLong(renderer.getBadPoints());
+			out.putLong(renderer.getPointsOutOfView());
+			renderer.getHistogram().writeTo(out);
+			out.flush();
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java -cp FlameFractals.jar RenderWorker [options]");
+		System.err.println("  -port <n>         port to listen on (default: " + DEFAULT_PORT + ")");
+		System.err.println("  -threads <n>      number of threads (default: number of processors)");
+		Histogram.Storage.printOptions();
+		System.exit(1);
+	}
+
+	public static void main(String args[]) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		int port = DEFAULT_PORT;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		Histogram.Storage storage = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				Histogram.Storage option = Histogram.Storage.fromOption(args[i]);
+				if (option != null) {
+					storage = option;
+					continue;
+				}
+				switch (args[i]) {
+				case "-port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "-threads":
+					numThreads = Integer.parseInt(args[++i]);
+					break;
+				default:
+					usage();
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+		}
+
+		final RenderWorker worker = new RenderWorker(Executors.newCachedThreadPool(), numThreads, storage);
+		try (ServerSocket server = new ServerSocket(port)) {
+			System.out.println("[WORKER] Listening on port " + server.getLocalPort());
+			while (true) {
+				final Socket socket = server.accept();
+				new Thread() {
+					@Override
+					public void run() {
+						System.out.println("[WORKER] Serving " + socket.getRemoteSocketAddress());
+						try (Socket s = socket) {
+							worker.serve(Channels.newChannel(s.getInputStream()), Channels.newChannel(s.getOutputStream()));
+							System.out.println("[WORKER] Done serving " + s.getRemoteSocketAddress());
+						} catch (IOException | InterruptedException | RuntimeException e) {
+							System.out.println("[WORKER] Lost " + socket.getRemoteSocketAddress() + ": " + e);
+						}
+					}
+				}.start();
+			}
+		}
+	}
+}
@@ -0,0 +1,1165 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Plays the chaos game for a flame into a histogram, and tone maps the histogram into an image.
+ *
+ * The renderer holds on to its histogram between renders, so that an image can
+ * be tone mapped again with different settings without repeating the chaos game.
+ * It also holds on to the state of the chaos game, so that raising the number
+ * of iterations only plays the extra iterations. It does not depend on any GUI
+ * components, so it can also be used headless.
+ */
+public class Renderer {
+	public static final int MAX_ZOOM = 10;
+
+	// How often to refresh the image when refining, in milliseconds.
+	private static final long REFINE_INTERVAL = 1000;
+
+	// How many iterations each worker plays between publishing its progress.
+	private static final int PUBLISH_INTERVAL = 4096;
+
+	// How many rows of the image each tone mapping worker does between checks for interruption.
+	private static final int TONE_MAP_ROWS = 16;
+
+	// The fewest iterations to play between checking whether a checkpoint is due.
+	private static final long CHECKPOINT_STEP = 1000000L;
+
+	// A point further out than this, or not a number, has diverged and is replaced
+	// by a new one, which plays this many iterations to settle before it is plotted.
+	private static final double DIVERGED = 1e10;
+	private static final int RESEED_WARMUP = 20;
+
+	// The game is given up on if, after this many iterations of a worker, fewer
+	// than this fraction of the worker's points have landed in the histogram.
+	private static final long HOPELESS_ITERATIONS = 1L << 16;
+	private static final double MIN_HIT_RATE = 0.001;
+
+	// With automatic storage, the histogram is sparse if a warm-up game hits fewer than this fraction of
+	// the tiles of a sparse histogram. The warm-up plays this many iterations per tile, up to a limit and
+	// to a fraction of the render's iterations. The render's longer game reaches further than the warm-up,
+	// so the fraction is well below the coverage at which sparse storage stops saving memory.
+	private static final double MAX_SPARSE_COVERAGE = 0.15;
+	private static final int WARMUP_ITERATIONS_PER_TILE = 16;
+	private static final int MAX_WARMUP_ITERATIONS = 1 << 18;
+	private static final int WARMUP_FRACTION = 8;
+
+	// With mapped storage the workers other than the first play into sparse buffers on the heap, rather
+	// than into private copies of the histogram, and stop to flush them once they hold this many cells.
+	private static final long MAX_BUFFER_CELLS = 1L << 20;
+
+	// Executor the chaos game is played on.
+	private final ExecutorService workers;
+
+	// Render settings.
+	private int width = 1024;
+	private int height = 768;
+	private int superSampleSize = 3;
+	private long numIterations = 100000L;
+	private int zoom = 1;
+	private double gamma = 2.2;
+	private int densityRadius = 0;
+	private Downsampler.Filter filter = Downsampler.Filter.BOX;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private Histogram.Storage storage = null;
+	private boolean singlePrecision = false;
+	private boolean paletteColoring = false;
+	private Palette palette = null;
+	private HitCounts.Width counters = HitCounts.Width.COMPACT;
+	private Long randomSeed = null;
+
+	private Histogram histogram;
+	private final ToneMapper toneMapper = new ToneMapper();
+	private ProgressListener listener;
+
+	// The state of the chaos game that was played into the histogram, and the
+	// flame and settings it was played with.
+	private volatile List<IterationTask> tasks;
+	private CompiledFlame iteratedFlame;
+	private long iteratedSeed;
+	private int iteratedZoom;
+	// Whether the workers' private histograms may hold hits that have not been merged, because a game was interrupted.
+	private boolean unmerged;
+
+	// The storage that was chosen automatically for a flame, and the flame and histogram size it was chosen for.
+	private Histogram.Storage chosenStorage;
+	private CompiledFlame chosenFlame;
+	private int chosenZoom;
+	private int chosenWidth;
+	private int chosenHeight;
+
+	// Set to make the worker tasks stop when the render is interrupted.
+	private volatile boolean stopped;
+
+	// Set when the current game has been given up on, because hardly any of its points land in the histogram.
+	private volatile boolean hopeless;
+
+	// Where to write checkpoints of the chaos game, how often, and when the last one was written.
+	private File checkpointFile;
+	private long checkpointInterval;
+	private long lastCheckpoint;
+
+	// Whether the chaos game is being played, and the iterations it started from
+	// and is playing up to, for a progress sampler on another thread.
+	private volatile boolean iterating;
+	private volatile long iterationsFrom;
+	private volatile long iterationsTo;
+
+	public Renderer(ExecutorService workers) {
+		this.workers = workers;
+	}
+
+	public void setSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	public void setSuperSampleSize(int superSampleSize) {
+		this.superSampleSize = superSampleSize;
+	}
+
+	public void setNumIterations(long numIterations) {
+		this.numIterations = numIterations;
+	}
+
+	public void setZoom(int zoom) {
+		this.zoom = zoom;
+	}
+
+	public void setGamma(double gamma) {
+		this.gamma = gamma;
+	}
+
+	/**
+	 * @param densityRadius The largest radius, in supersamples, that sparse parts of the
+	 * histogram are smoothed over by density estimation when tone mapping, or 0 not to smooth them.
+	 */
+	public void setDensityRadius(int densityRadius) {
+		this.densityRadius = densityRadius;
+	}
+
+	/**
+	 * @param filter The filter the supersamples are resolved into pixels with.
+	 */
+	public void setFilter(Downsampler.Filter filter) {
+		this.filter = filter;
+	}
+
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * @param storage Where to keep the histogram, or null to choose between heap
+	 * and sparse storage for each flame, see getStorage(Flame).
+	 */
+	public void setStorage(Histogram.Storage storage) {
+		this.storage = storage;
+	}
+
+	public void setSinglePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+	}
+
+	/**
+	 * @param paletteColoring Whether to color the flame by the color indices of its functions
+	 * rather than by their colors. The histogram then only sums the color indices, which are
+	 * looked up in the palette when tone mapping.
+	 */
+	public void setPaletteColoring(boolean paletteColoring) {
+		this.paletteColoring = paletteColoring;
+	}
+
+	/**
+	 * @param palette The palette to look the color indices up in with palette coloring,
+	 * or null to use a palette made from the colors of the flame's functions. Changing
+	 * the palette only needs the histogram to be tone mapped again.
+	 */
+	public void setPalette(Palette palette) {
+		this.palette = palette;
+	}
+
+	/**
+	 * @param counters The width of the hit counters of the histogram. Compact counters
+	 * are as small as ints for all but the few cells with over a billion hits.
+	 */
+	public void setCounters(HitCounts.Width counters) {
+		this.counters = counters;
+	}
+
+	/**
+	 * Write a checkpoint of the chaos game to the given file every interval
+	 * milliseconds while playing it, and when a render is interrupted while
+	 * playing it.
+	 *
+	 * @param file The checkpoint file, or null to stop writing checkpoints.
+	 */
+	public void setCheckpoint(File file, long interval) {
+		checkpointFile = file;
+		checkpointInterval = interval;
+		lastCheckpoint = System.currentTimeMillis();
+	}
+
+	/**
+	 * @param randomSeed The seed of the random number generators of the chaos game,
+	 * or null to use the seed of the flame. Renders of the same flame with different
+	 * random seeds play different parts of the same game, which can then be combined.
+	 */
+	public void setRandomSeed(Long randomSeed) {
+		this.randomSeed = randomSeed;
+	}
+
+	public void setProgressListener(ProgressListener listener) {
+		this.listener = listener;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getSuperSampleSize() {
+		return superSampleSize;
+	}
+
+	public long getNumIterations() {
+		return numIterations;
+	}
+
+	public int getZoom() {
+		return zoom;
+	}
+
+	public int getDensityRadius() {
+		return densityRadius;
+	}
+
+	public Downsampler.Filter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * @return Where the histogram is kept, or null if it is chosen for each flame.
+	 */
+	public Histogram.Storage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * Where the histogram is kept for the flame. Unless the storage has been set,
+	 * a short warm-up game of the flame is played onto a grid of the tiles of a
+	 * sparse histogram, and the histogram is sparse if few of them are hit.
+	 */
+	public Histogram.Storage getStorage(Flame flame) {
+		if (storage != null) {
+			return storage;
+		}
+		int w = width * superSampleSize;
+		int h = height * superSampleSize;
+		if (chosenFlame != flame.getCompiled() || chosenZoom != zoom || chosenWidth != w || chosenHeight != h) {
+			int tilesX = (w + SparseHistogram.TILE_SIZE - 1) / SparseHistogram.TILE_SIZE;
+			int tilesY = (h + SparseHistogram.TILE_SIZE - 1) / SparseHistogram.TILE_SIZE;
+			long iterations = Math.min((long) tilesX * tilesY * WARMUP_ITERATIONS_PER_TILE, numIterations / WARMUP_FRACTION);
+			double coverage = new FlameProbe(zoom).coverage(flame, tilesX, tilesY, (int) Math.min(iterations, MAX_WARMUP_ITERATIONS));
+			chosenStorage = coverage < MAX_SPARSE_COVERAGE ? Histogram.Storage.SPARSE : Histogram.Storage.HEAP;
+			chosenFlame = flame.getCompiled();
+			chosenZoom = zoom;
+			chosenWidth = w;
+			chosenHeight = h;
+		}
+		return chosenStorage;
+	}
+
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+
+	public boolean isPaletteColoring() {
+		return paletteColoring;
+	}
+
+	public HitCounts.Width getCounters() {
+		return counters;
+	}
+
+	/**
+	 * The palette the flame is looked up in with palette coloring.
+	 */
+	public Palette getPalette(Flame flame) {
+		return palette != null ? palette : Palette.fromFunctions(flame.getFunctions());
+	}
+
+	public Histogram getHistogram() {
+		return histogram;
+	}
+
+	/**
+	 * The number of iterations that have been played into the histogram.
+	 */
+	public long getIterationsDone() {
+		long done = 0;
+		if (tasks != null) {
+			for (IterationTask task : tasks) {
+				done += task.iterationsDone;
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * Whether the chaos game is currently being played.
+	 * This, like the other progress methods, may be called from any thread.
+	 */
+	public boolean isIterating() {
+		return iterating;
+	}
+
+	/**
+	 * The number of iterations that had been played when the current chaos game started.
+	 */
+	public long getIterationsFrom() {
+		return iterationsFrom;
+	}
+
+	/**
+	 * The number of iterations the current chaos game is playing up to.
+	 */
+	public long getIterationsTo() {
+		return iterationsTo;
+	}
+
+	/**
+	 * The number of iterations played so far, as last published by the workers.
+	 * The workers only publish every PUBLISH_INTERVAL iterations, so this may
+	 * lag slightly behind, but it is cheap to call while the workers are busy.
+	 */
+	public long getIterationsPublished() {
+		long done = 0;
+		List<IterationTask> current = tasks;
+		if (current != null) {
+			for (IterationTask task : current) {
+				done += task.published;
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * The number of points that diverged and were replaced, as last published by the workers.
+	 */
+	public long getBadPoints() {
+		long bad = 0;
+		List<IterationTask> current = tasks;
+		if (current != null) {
+			for (IterationTask task : current) {
+				bad += task.badPoints;
+			}
+		}
+		return bad;
+	}
+
+	/**
+	 * The number of points that fell outside of the histogram, as last published by the workers.
+	 */
+	public long getPointsOutOfView() {
+		long outOfView = 0;
+		List<IterationTask> current = tasks;
+		if (current != null) {
+			for (IterationTask task : current) {
+				outOfView += task.outOfView;
+			}
+		}
+		return outOfView;
+	}
+
+	/**
+	 * The fraction of the iterations played so far whose points landed in the histogram.
+	 */
+	public double getHitRate() {
+		List<IterationTask> current = tasks;
+		if (current == null) {
+			return 0;
+		}
+		long done = 0;
+		long missed = 0;
+		for (IterationTask task : current) {
+			// The workers publish their counters before their iterations, so read
+			// them the other way around to never count more misses than iterations.
+			missed += task.badPoints + task.outOfView;
+			done += task.published;
+		}
+		return done > 0 ? Math.max(done - missed, 0) / (double) done : 0;
+	}
+
+	/**
+	 * Whether the current chaos game was given up on, because hardly any of its points landed in the histogram.
+	 */
+	public boolean isHopeless() {
+		return hopeless;
+	}
+
+	/**
+	 * Why the current chaos game was given up on, or null if it was not.
+	 */
+	public String getHopelessReason() {
+		if (!hopeless) {
+			return null;
+		}
+		return String.format("Gave up after %d iterations: only %.2f%% of the points were in view (%d diverged, %d out of view)",
+				getIterationsDone(), getHitRate() * 100, getBadPoints(), getPointsOutOfView());
+	}
+
+	private void checkForInterrupted() throws InterruptedException {
+		if(stopped || Thread.currentThread().isInterrupted()) {
+			throw new InterruptedException();
+		}
+	}
+
+	private void progress(int value) {
+		if (listener != null) {
+			listener.progress(value);
+		}
+	}
+
+	private void status(String message) {
+		if (listener != null) {
+			listener.status(message);
+		}
+	}
+
+	/**
+	 * Render the flame into the given image, which must be of the renderer's size.
+	 *
+	 * If the chaos game has already been played for the same flame and settings,
+	 * and for no more than the current number of iterations, it is continued
+	 * from where it stopped rather than played again from the start.
+	 *
+	 * @param recalculate Whether to play the chaos game, or only tone map the current histogram.
+	 * The chaos game is always played if the histogram does not match the current settings.
+	 * @return The number of pixels drawn.
+	 */
+	public long render(Flame flame, BufferedImage image, boolean recalculate) throws InterruptedException {
+		// Reset the progress.
+		progress(0);
+		status("Preparing calculations...");
+
+		if (recalculate || !Histogram.fits(histogram, width * superSampleSize, height * superSampleSize, getStorage(flame),
+				singlePrecision, paletteColoring, counters)) {
+			play(flame);
+		}
+
+		status("Rendering...");
+		// Tone map what an interrupted game has played so far.
+		mergeBuffers();
+		histogram.setPalette(getPalette(flame));
+		long count = toneMap(histogram, image);
+		progress(1000);
+		if (hopeless) {
+			status(getHopelessReason());
+		} else {
+			status(String.format("Rendered %d pixels at zoom level %d, %.1f%% of the points were in view",
+					count, zoom, getHitRate() * 100));
+		}
+		return count;
+	}
+
+	/**
+	 * Play the chaos game for the flame into the histogram up to the current
+	 * number of iterations, without tone mapping it. Like render, this continues
+	 * the previous game where possible.
+	 */
+	public void play(Flame flame) throws InterruptedException {
+		boolean allocated = allocateHistogram(getStorage(flame));
+		CompiledFlame compiled = flame.getCompiled();
+		long seed = randomSeed != null ? randomSeed : flame.getSeed();
+		if (!canContinue(compiled, seed)) {
+			// A new histogram is empty already, and clearing a mapped one would write all of its file.
+			if (!allocated) {
+				histogram.clear();
+			}
+			createTasks(compiled, seed);
+		}
+
+		checkForInterrupted();
+		iterate(flame);
+	}
+
+	/**
+	 * Play a new chaos game for the flame for the given number of iterations, and
+	 * add it to what the histogram already holds rather than replacing it. This
+	 * lets the games of several flames, such as the time samples of a motion
+	 * blurred animation frame, be combined in one histogram.
+	 *
+	 * @param clear Whether to empty the histogram first.
+	 */
+	public void accumulate(Flame flame, long iterations, boolean clear) throws InterruptedException {
+		// Hits are only added to a histogram with the storage chosen for the first flame.
+		boolean allocated = allocateHistogram(
+				clear || histogram == null || storage != null ? getStorage(flame) : histogram.getStorage());
+		if (clear && !allocated) {
+			histogram.clear();
+		}
+		createTasks(flame.getCompiled(), randomSeed != null ? randomSeed : flame.getSeed());
+		checkForInterrupted();
+		iterate(iterations);
+	}
+
+	/**
+	 * Make sure there is a histogram of the current size and type with the given storage, reusing the current one if it fits.
+	 *
+	 * @return Whether a new, empty histogram was allocated.
+	 */
+	private boolean allocateHistogram(Histogram.Storage storage) {
+		int h = height * superSampleSize;
+		int w = width * superSampleSize;
+		if (Histogram.fits(histogram, w, h, storage, singlePrecision, paletteColoring, counters)) {
+			return false;
+		}
+		// Let the old histograms be collected before allocating the new one.
+		histogram = null;
+		tasks = null;
+		histogram = Histogram.create(w, h, storage, singlePrecision, paletteColoring, counters);
+		return true;
+	}
+
+	/**
+	 * Keep adding iterations to the render of the flame until interrupted,
+	 * tone mapping the image and calling onRefresh about once a second.
+	 */
+	public void refine(Flame flame, BufferedImage image, Runnable onRefresh) throws InterruptedException {
+		render(flame, image, true);
+		onRefresh.run();
+		long step = Math.max(numIterations, 1);
+		while (true) {
+			long start = System.currentTimeMillis();
+			long done = getIterationsDone();
+			numIterations = done + step;
+			render(flame, image, true);
+			onRefresh.run();
+			if (hopeless) {
+				return;
+			}
+
+			// Size the next step to take about one refresh interval.
+			long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+			step = Math.max((getIterationsDone() - done) * REFINE_INTERVAL / elapsed, 1000);
+		}
+	}
+
+	/**
+	 * Whether the chaos game state can be continued for the flame with the current settings.
+	 */
+	private boolean canContinue(CompiledFlame compiled, long seed) {
+		return tasks != null && iteratedFlame == compiled && iteratedSeed == seed && iteratedZoom == zoom
+				&& tasks.size() == numThreads
+				&& getIterationsDone() <= numIterations;
+	}
+
+	/**
+	 * Start a new chaos game for the flame, with one task per thread. The first
+	 * task accumulates directly into the shared histogram, the others into private
+	 * ones, which are reused from the previous game where they fit. The private
+	 * histograms of a mapped histogram are sparse, and bounded by MAX_BUFFER_CELLS.
+	 */
+	private void createTasks(CompiledFlame compiled, long seed) {
+		int w = histogram.getWidth();
+		int h = histogram.getHeight();
+		int realZoom = (MAX_ZOOM + 1) - zoom;
+		boolean bounded = histogram.getStorage() == Histogram.Storage.MAPPED;
+		Histogram.Storage bufferStorage = bounded ? Histogram.Storage.SPARSE : histogram.getStorage();
+		List<IterationTask> oldTasks = tasks;
+		tasks = null;
+		List<IterationTask> newTasks = new ArrayList<>(numThreads);
+		for (int t = 0; t < numThreads; t++) {
+			Histogram buffer;
+			if (t == 0) {
+				buffer = histogram;
+			} else if (oldTasks != null && t < oldTasks.size()
+					&& Histogram.fits(oldTasks.get(t).histogram, w, h, bufferStorage, singlePrecision, paletteColoring, counters)) {
+				// An interrupted game may have left hits in the buffer.
+				buffer = oldTasks.get(t).histogram;
+				buffer.clear();
+			} else {
+				buffer = Histogram.create(w, h, bufferStorage, singlePrecision, paletteColoring, counters);
+			}
+			newTasks.add(new IterationTask(compiled, seed, t, realZoom, buffer, bounded && t > 0));
+		}
+		tasks = newTasks;
+		unmerged = false;
+		hopeless = false;
+		iteratedFlame = compiled;
+		iteratedSeed = seed;
+		iteratedZoom = zoom;
+	}
+
+	/**
+	 * Play the chaos game up to the current number of iterations, writing
+	 * checkpoints along the way if a checkpoint file is set.
+	 */
+	private void iterate(Flame flame) throws InterruptedException {
+		iterationsFrom = getIterationsDone();
+		iterationsTo = numIterations;
+		iterating = true;
+		try {
+			if (checkpointFile == null) {
+				iterate(numIterations);
+				return;
+			}
+			try {
+				// Play the game in steps that end about when the next checkpoint is due.
+				long step = CHECKPOINT_STEP;
+				while (!hopeless && getIterationsDone() < numIterations) {
+					long start = System.currentTimeMillis();
+					long done = getIterationsDone();
+					iterate(Math.min(done + step, numIterations));
+
+					long now = System.currentTimeMillis();
+					if (now - lastCheckpoint >= checkpointInterval) {
+						writeCheckpoint(flame);
+					}
+					double rate = (getIterationsDone() - done) / (double) Math.max(now - start, 1);
+					step = Math.max((long) (rate * (lastCheckpoint + checkpointInterval - now)), CHECKPOINT_STEP);
+				}
+			} catch (InterruptedException e) {
+				// Keep what has been played so far. The interrupt flag is cleared
+				// while writing, as it would make the file channel close itself.
+				boolean interrupted = Thread.interrupted();
+				try {
+					writeCheckpoint(flame);
+				} catch (RuntimeException f) {
+					e.addSuppressed(f);
+				} finally {
+					if (interrupted) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				throw e;
+			}
+		} finally {
+			iterating = false;
+		}
+	}
+
+	/**
+	 * Play the chaos game up to the given number of iterations, and merge the
+	 * workers' histograms into the shared histogram.
+	 */
+	private void iterate(long target) throws InterruptedException {
+		if (hopeless) {
+			return;
+		}
+		int h = histogram.getHeight();
+
+		// Split the iterations between the workers.
+		int n = tasks.size();
+		for (int t = 0; t < n; t++) {
+			tasks.get(t).iterations = target / n + (t < target % n ? 1 : 0);
+		}
+		// Workers with bounded buffers stop when they are full, and carry on once they have been flushed.
+		boolean done;
+		do {
+			unmerged = n > 1;
+			invokeAllWorkers(tasks);
+
+			// Move the private buffers into the shared buffers, one block of rows per thread.
+			if (n > 1) {
+				List<MergeTask> merges = new ArrayList<>(n);
+				for (int t = 0; t < n; t++) {
+					merges.add(new MergeTask(tasks, (int) ((long) h * t / n), (int) ((long) h * (t + 1) / n)));
+				}
+				invokeAllWorkers(merges);
+				unmerged = false;
+			}
+
+			done = true;
+			for (IterationTask task : tasks) {
+				if (task.bounded) {
+					// Drop the emptied tiles the merge left at the edges of its blocks.
+					task.histogram.clear();
+				}
+				done &= task.iterationsDone >= task.iterations;
+			}
+		} while (!done && !hopeless);
+	}
+
+	/**
+	 * Move the hits an interrupted game left in the workers' private histograms into the shared histogram.
+	 */
+	private void mergeBuffers() {
+		if (!unmerged || tasks == null) {
+			return;
+		}
+		for (int t = 1; t < tasks.size(); t++) {
+			Histogram buffer = tasks.get(t).histogram;
+			histogram.add(buffer, 0, buffer.getHeight());
+			buffer.clear();
+		}
+		unmerged = false;
+	}
+
+	/**
+	 * Write a checkpoint to the checkpoint file.
+	 */
+	private void writeCheckpoint(Flame flame) {
+		try {
+			saveCheckpoint(flame, checkpointFile);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not write the checkpoint " + checkpointFile, e);
+		}
+		lastCheckpoint = System.currentTimeMillis();
+	}
+
+	/**
+	 * Write the state of the chaos game for the flame to a file, from which it can be resumed with loadCheckpoint.
+	 *
+	 * The checkpoint holds the render settings, the flame's seed, variation weights
+	 * and parameters and functions, the non-empty cells of the histogram and the
+	 * point and random number generator of every worker. It is written to a
+	 * temporary file that then replaces the given file, so an existing checkpoint
+	 * is never left half written.
+	 * Must not be called while rendering.
+	 */
+	public void saveCheckpoint(Flame flame, File file) throws IOException {
+		if (tasks == null || flame.getCompiled() != iteratedFlame) {
+			throw new IllegalStateException("The chaos game has not been played for this flame");
+		}
+		// The private histograms are emptied into the shared one, so only it needs to be written.
+		mergeBuffers();
+
+		File temp = new File(file.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			CheckpointOutput out = new CheckpointOutput(channel);
+			out.putLong(CheckpointOutput.MAGIC);
+			out.putInt(CheckpointOutput.VERSION);
+			out.putInt(width);
+			out.putInt(height);
+			out.putInt(superSampleSize);
+			out.putInt(iteratedZoom);
+			out.putLong(numIterations);
+			out.putDouble(gamma);
+			flame.writeTo(out);
+			histogram.writeTo(out);
+			out.putInt(tasks.size());
+			for (IterationTask task : tasks) {
+				task.writeTo(out);
+			}
+			out.putLong(CheckpointOutput.MAGIC);
+			out.flush();
+			channel.force(false);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Restore the settings and the state of the chaos game from a checkpoint written by saveCheckpoint.
+	 * The number of threads is set to the number of workers in the checkpoint, and
+	 * the histogram storage is kept as it is, or chosen for the flame if it is automatic.
+	 *
+	 * @return The flame of the checkpoint, whose render the next call to render continues.
+	 */
+	public Flame loadCheckpoint(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			CheckpointInput in = new CheckpointInput(channel);
+			if (in.getLong() != CheckpointOutput.MAGIC) {
+				throw new IOException(file + " is not a checkpoint");
+			}
+			int version = in.getInt();
+			if (version != CheckpointOutput.VERSION) {
+				throw new IOException("Unsupported checkpoint version " + version);
+			}
+			width = in.getInt();
+			height = in.getInt();
+			superSampleSize = in.getInt();
+			zoom = in.getInt();
+			numIterations = in.getLong();
+			gamma = in.getDouble();
+			Flame flame = Flame.readFrom(in);
+
+			tasks = null;
+			histogram = null;
+			histogram = Histogram.readFrom(in, getStorage(flame));
+			singlePrecision = histogram.isSinglePrecision();
+			paletteColoring = histogram.isIndexed();
+			counters = histogram.getCounters();
+			if (histogram.getWidth() != width * superSampleSize || histogram.getHeight() != height * superSampleSize) {
+				throw new IOException("The checkpoint's histogram does not match its size");
+			}
+
+			numThreads = in.getInt();
+			if (numThreads < 1) {
+				throw new IOException("The checkpoint has no workers");
+			}
+			createTasks(flame.getCompiled(), flame.getSeed());
+			for (IterationTask task : tasks) {
+				task.readFrom(in);
+			}
+			if (in.getLong() != CheckpointOutput.MAGIC) {
+				throw new IOException("The checkpoint is corrupt");
+			}
+			return flame;
+		} catch (IOException | RuntimeException e) {
+			// Start the next render from scratch rather than from a partly restored state.
+			tasks = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * Tone map a histogram of the renderer's size with the renderer's settings,
+	 * and resolve the supersamples into the pixels of the image with the
+	 * renderer's filter, with the rows of the image split between the worker
+	 * threads. With a density radius set, the sparse parts of the histogram are
+	 * smoothed out first. An indexed histogram must have had its palette set,
+	 * for example to getPalette of its flame.
+	 *
+	 * @return The number of pixels drawn.
+	 */
+	public long toneMap(Histogram histogram, BufferedImage image) throws InterruptedException {
+		toneMapper.setGamma(gamma);
+		int[] pixels = ToneMapper.getPixels(image);
+		int rows = image.getHeight();
+		int n = numThreads;
+		List<ToneMapTask> toneMaps = new ArrayList<>(n);
+		for (int t = 0; t < n; t++) {
+			toneMaps.add(new ToneMapTask(histogram, image, pixels, (int) ((long) rows * t / n), (int) ((long) rows * (t + 1) / n)));
+		}
+		long count = 0;
+		for (long drawn : invokeAllWorkers(toneMaps)) {
+			count += drawn;
+		}
+		return count;
+	}
+
+	/**
+	 * Runs the given tasks on the worker pool and waits for all of them to finish.
+	 * If any of them fails the failure is rethrown, otherwise their results are
+	 * returned in the order of the tasks. If the calling thread is
+	 * interrupted all the tasks are stopped, and the interruption is only rethrown
+	 * once none of them is running any more, so that they leave the histograms
+	 * and their state consistent.
+	 */
+	private <T> List<T> invokeAllWorkers(List<? extends Callable<T>> tasks) throws InterruptedException {
+		stopped = false;
+		List<T> results = new ArrayList<>(tasks.size());
+		List<Future<T>> futures = new ArrayList<>(tasks.size());
+		for (Callable<T> task : tasks) {
+			futures.add(workers.submit(task));
+		}
+		boolean interrupted = false;
+		Throwable failure = null;
+		for (Future<T> future : futures) {
+			while (true) {
+				try {
+					results.add(future.get());
+					break;
+				} catch (InterruptedException e) {
+					// Stop the tasks, but keep waiting for them.
+					interrupted = true;
+					stopped = true;
+				} catch (ExecutionException e) {
+					stopped = true;
+					if (failure == null || failure instanceof InterruptedException) {
+						failure = e.getCause();
+					}
+					break;
+				}
+			}
+		}
+		stopped = false;
+		if (interrupted || failure instanceof InterruptedException) {
+			throw new InterruptedException();
+		}
+		if (failure != null) {
+			throw new RuntimeException(failure);
+		}
+		return results;
+	}
+
+	/**
+	 * A task that plays part of the chaos game. Each task has its own point, color,
+	 * random number generator and accumulation buffers, so tasks never contend with each other.
+	 * The task keeps its state between runs, so that it can continue where it stopped.
+	 */
+	private class IterationTask implements Callable<Void> {
+		private final CompiledFlame compiled;
+		private final int realZoom;
+		private final Histogram histogram;
+		// Whether the histogram is a sparse buffer the task stops playing into once it is full.
+		private final boolean bounded;
+		private final FastRandom rnd;
+
+		// The state of the point, with the function applied to it last.
+		private final double[] p;
+		private final double[] col;
+		private int function = -1;
+
+		// The number of iterations played so far, and the number to play up to.
+		private long iterationsDone;
+		private long iterations;
+
+		// A copy of iterationsDone that is only updated every PUBLISH_INTERVAL
+		// iterations, so that other threads can read it without slowing the worker down.
+		private volatile long published;
+
+		// The number of points that diverged and were replaced, and that fell outside
+		// of the histogram, published along with the number of iterations.
+		private volatile long badPoints;
+		private volatile long outOfView;
+
+		public IterationTask(CompiledFlame compiled, long seed, int index, int realZoom, Histogram histogram,
+				boolean bounded) {
+			this.compiled = compiled;
+			this.realZoom = realZoom;
+			this.histogram = histogram;
+			this.bounded = bounded;
+
+			// Create a deterministic RNG for this part of the render, independent of the other workers.
+			rnd = FastRandom.stream(seed, index);
+			p = new double[] {
+					rnd.nextDouble(), rnd.nextDouble()
+			};
+			col = new double[] {
+					rnd.nextDouble(), rnd.nextDouble(), rnd.nextDouble()
+			};
+		}
+
+		public void writeTo(CheckpointOutput out) throws IOException {
+			out.putLong(iterationsDone);
+			out.putLong(badPoints);
+			out.putLong(outOfView);
+			rnd.writeTo(out);
+			for (double v : p) {
+				out.putDouble(v);
+			}
+			for (double v : col) {
+				out.putDouble(v);
+			}
+			out.putInt(function);
+		}
+
+		public void readFrom(CheckpointInput in) throws IOException {
+			iterationsDone = in.getLong();
+			badPoints = in.getLong();
+			outOfView = in.getLong();
+			published = iterationsDone;
+			rnd.readFrom(in);
+			for (int i = 0; i < p.length; i++) {
+				p[i] = in.getDouble();
+			}
+			for (int i = 0; i < col.length; i++) {
+				col[i] = in.getDouble();
+			}
+			function = in.getInt();
+			if (function < -1 || function >= compiled.getNumFunctions()) {
+				throw new IOException("The checkpoint is corrupt");
+			}
+		}
+
+		@Override
+		public Void call() throws InterruptedException {
+			iterate();
+			return null;
+		}
+
+		/**
+		 * Whether to stop playing, because the game has been given up on or, after
+		 * enough iterations, hardly any of this worker's points have been in view.
+		 */
+		private boolean giveUp(long done, long missed) {
+			if (!hopeless && done >= HOPELESS_ITERATIONS && done - missed < done * MIN_HIT_RATE) {
+				hopeless = true;
+			}
+			return hopeless;
+		}
+
+		/**
+		 * Replace the point after it has diverged with a new one, and let it settle onto the attractor.
+		 *
+		 * @return The function applied to the new point last.
+		 */
+		private int reseed(double[] p, double[] col, double[] newp, boolean indexed) {
+			FlameFunction[] functions = compiled.getFunctions();
+			p[0] = rnd.nextDouble();
+			p[1] = rnd.nextDouble();
+			col[0] = rnd.nextDouble();
+			col[1] = rnd.nextDouble();
+			col[2] = rnd.nextDouble();
+			int function = -1;
+			for (int i = 0; i < RESEED_WARMUP; i++) {
+				function = compiled.nextFunction(function, rnd);
+				FlameFunction f = functions[function];
+				compiled.applyAll(f, p, newp, rnd);
+				if (indexed) {
+					col[0] = (col[0] + f.colorIndex) / 2.0;
+				} else {
+					col[0] = (col[0] + f.red) / 2.0;
+					col[1] = (col[1] + f.green) / 2.0;
+					col[2] = (col[2] + f.blue) / 2.0;
+				}
+			}
+			return function;
+		}
+
+		/**
+		 * Play the chaos game one point at a time.
+		 */
+		private void iterate() throws InterruptedException {
+			FlameFunction[] functions = compiled.getFunctions();
+			int w = histogram.getWidth();
+			int h = histogram.getHeight();
+			double[] p = this.p;
+			double[] col = this.col;
+			double[] newp = new double[2];
+			int function = this.function;
+			// With palette coloring the point's color is a color index, kept in col[0].
+			boolean indexed = histogram.isIndexed();
+			SparseHistogram buffer = bounded ? (SparseHistogram) histogram : null;
+
+			long i = iterationsDone;
+			long bad = badPoints;
+			long outside = outOfView;
+			try {
+				for (; i < iterations; i++) {
+					if ((i & (PUBLISH_INTERVAL - 1)) == 0) {
+						badPoints = bad;
+						outOfView = outside;
+						published = i;
+						if (giveUp(i, bad + outside)) {
+							break;
+						}
+					}
+					if (buffer != null && buffer.getAllocatedCells() >= MAX_BUFFER_CELLS) {
+						break;
+					}
+					checkForInterrupted();
+					function = compiled.nextFunction(function, rnd);
+					FlameFunction f = functions[function];
+					compiled.applyAll(f, p, newp, rnd);
+					if (indexed) {
+						col[0] = (col[0] + f.colorIndex) / 2.0;
+					} else {
+						col[0] = (col[0] + f.red) / 2.0;
+						col[1] = (col[1] + f.green) / 2.0;
+						col[2] = (col[2] + f.blue) / 2.0;
+					}
+
+					// NaN fails both comparisons.
+					if (!(Math.abs(p[0]) < DIVERGED && Math.abs(p[1]) < DIVERGED)) {
+						bad++;
+						function = reseed(p, col, newp, indexed);
+					} else if (p[0] > realZoom || p[0] < -realZoom || p[1] > realZoom || p[1] < -realZoom) {
+						outside++;
+					} else {
+						int x = (int) (p[0] * w / (realZoom * 2) + w / 2);
+						int y = (int) (p[1] * h / (realZoom * 2) + h / 2);
+						if (indexed) {
+							histogram.add(x, y, col[0]);
+						} else {
+							histogram.add(x, y, col[0], col[1], col[2]);
+						}
+					}
+				}
+			} finally {
+				iterationsDone = i;
+				this.function = function;
+				badPoints = bad;
+				outOfView = outside;
+				published = i;
+			}
+		}
+	}
+
+	/**
+	 * A task that moves the private histograms of all but the first iteration task
+	 * into the histogram of the first one, for a block of rows. Each private block
+	 * is cleared as soon as it has been added, so that an interrupted merge can
+	 * safely be repeated.
+	 */
+	private class MergeTask implements Callable<Void> {
+		private final List<IterationTask> tasks;
+		private final int fromRow;
+		private final int toRow;
+
+		public MergeTask(List<IterationTask> tasks, int fromRow, int toRow) {
+			this.tasks = tasks;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+		}
+
+		@Override
+		public Void call() throws InterruptedException {
+			Histogram histogram = tasks.get(0).histogram;
+			for (int t = 1; t < tasks.size(); t++) {
+				checkForInterrupted();
+				Histogram buffer = tasks.get(t).histogram;
+				histogram.add(buffer, fromRow, toRow);
+				buffer.clear(fromRow, toRow);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * A task that tone maps a block of rows of the image.
+	 */
+	private class ToneMapTask implements Callable<Long> {
+		private final Histogram histogram;
+		private final BufferedImage image;
+		private final int[] pixels;
+		private final int fromRow;
+		private final int toRow;
+
+		public ToneMapTask(Histogram histogram, BufferedImage image, int[] pixels, int fromRow, int toRow) {
+			this.histogram = histogram;
+			this.image = image;
+			this.pixels = pixels;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+		}
+
+		@Override
+		public Long call() throws InterruptedException {
+			Downsampler downsampler = new Downsampler(filter, superSampleSize, histogram.getWidth(), image.getWidth());
+			DensityEstimator estimator = densityRadius > 0 ? new DensityEstimator(densityRadius) : null;
+			long count = 0;
+			for (int row = fromRow; row < toRow; row += TONE_MAP_ROWS) {
+				checkForInterrupted();
+				count += toneMapper.toneMap(histogram, image, pixels, row, Math.min(row + TONE_MAP_ROWS, toRow), downsampler, estimator);
+			}
+			return count;
+		}
+	}
+}
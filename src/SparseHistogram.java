@@ -0,0 +1,288 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A histogram on the heap that only allocates the parts of it that are hit.
+ *
+ * The cells are split into square tiles of TILE_SIZE cells a side, which are
+ * allocated the first time one of their cells is hit. Most flames only cover a
+ * small part of the image, so this keeps a fraction of the memory of a dense
+ * histogram, and merging, clearing, tone mapping and writing the histogram
+ * skip the tiles that were never hit. A hit costs an extra lookup of its tile.
+ *
+ * Within a tile the cells are stored row by row, with the channels one after
+ * the other. The tiles are allocated under a lock, as merging histograms adds
+ * to disjoint rows from several threads, which can share a tile.
+ */
+public class SparseHistogram extends Histogram {
+	static final int TILE_BITS = 5;
+	static final int TILE_SIZE = 1 << TILE_BITS;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+	private static final int TILE_CELLS = TILE_SIZE * TILE_SIZE;
+
+	private final boolean singlePrecision;
+	private final boolean indexed;
+	private final HitCounts.Width counters;
+	private final int channels;
+	private final int tilesX;
+	private final Tile[] tiles;
+	// The number of tiles that are allocated, only changed under the lock.
+	private volatile int allocated;
+
+	private class Tile {
+		final HitCounts count = HitCounts.create(TILE_CELLS, counters);
+		// The channels of the cells, the red, green and blue sums or the index sum, in the histogram's precision.
+		final float[] singles = singlePrecision ? new float[channels * TILE_CELLS] : null;
+		final double[] doubles = singlePrecision ? null : new double[channels * TILE_CELLS];
+
+		double get(int channel, int i) {
+			return singlePrecision ? singles[channel * TILE_CELLS + i] : doubles[channel * TILE_CELLS + i];
+		}
+
+		void add(int channel, int i, double value) {
+			if (singlePrecision) {
+				singles[channel * TILE_CELLS + i] += value;
+			} else {
+				doubles[channel * TILE_CELLS + i] += value;
+			}
+		}
+
+		void set(int channel, int i, double value) {
+			if (singlePrecision) {
+				singles[channel * TILE_CELLS + i] = (float) value;
+			} else {
+				doubles[channel * TILE_CELLS + i] = value;
+			}
+		}
+	}
+
+	public SparseHistogram(int width, int height, boolean singlePrecision, boolean indexed, HitCounts.Width counters) {
+		super(width, height);
+		this.singlePrecision = singlePrecision;
+		this.indexed = indexed;
+		this.counters = counters;
+		channels = indexed ? 1 : 3;
+		tilesX = (width + TILE_MASK) >> TILE_BITS;
+		int tilesY = (height + TILE_MASK) >> TILE_BITS;
+		tiles = new Tile[tilesX * tilesY];
+	}
+
+	public Storage getStorage() {
+		return Storage.SPARSE;
+	}
+
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	public HitCounts.Width getCounters() {
+		return counters;
+	}
+
+	private static int cell(int x, int y) {
+		return ((y & TILE_MASK) << TILE_BITS) | (x & TILE_MASK);
+	}
+
+	/**
+	 * The tile of a cell, or null if it has not been allocated.
+	 */
+	private Tile tile(int x, int y) {
+		return tiles[(y >> TILE_BITS) * tilesX + (x >> TILE_BITS)];
+	}
+
+	/**
+	 * The tile of a cell, allocating it if needed. A tile's fields are final,
+	 * so a thread that sees it in the array without the lock sees it fully constructed.
+	 */
+	private Tile touch(int x, int y) {
+		int t = (y >> TILE_BITS) * tilesX + (x >> TILE_BITS);
+		Tile tile = tiles[t];
+		if (tile == null) {
+			synchronized (this) {
+				tile = tiles[t];
+				if (tile == null) {
+					tile = new Tile();
+					tiles[t] = tile;
+					allocated++;
+				}
+			}
+		}
+		return tile;
+	}
+
+	/**
+	 * The number of cells in the tiles that have been allocated.
+	 */
+	public long getAllocatedCells() {
+		return (long) allocated * TILE_CELLS;
+	}
+
+	public int nextCell(int x, int y) {
+		int row = (y >> TILE_BITS) * tilesX;
+		while (x < width && tiles[row + (x >> TILE_BITS)] == null) {
+			x = (x | TILE_MASK) + 1;
+		}
+		return Math.min(x, width);
+	}
+
+	public long getCount(int x, int y) {
+		Tile tile = tile(x, y);
+		return tile == null ? 0 : tile.count.get(cell(x, y));
+	}
+
+	private double getChannel(int channel, int x, int y) {
+		Tile tile = tile(x, y);
+		return tile == null ? 0 : tile.get(channel, cell(x, y));
+	}
+
+	public double getRed(int x, int y) {
+		return indexed ? lookUpRed(x, y) : getChannel(0, x, y);
+	}
+
+	public double getGreen(int x, int y) {
+		return indexed ? lookUpGreen(x, y) : getChannel(1, x, y);
+	}
+
+	public double getBlue(int x, int y) {
+		return indexed ? lookUpBlue(x, y) : getChannel(2, x, y);
+	}
+
+	public double getIndex(int x, int y) {
+		if (!indexed) {
+			return super.getIndex(x, y);
+		}
+		return getChannel(0, x, y);
+	}
+
+	public void add(int x, int y, double r, double g, double b) {
+		if (indexed) {
+			throw new UnsupportedOperationException("The histogram is indexed");
+		}
+		Tile tile = touch(x, y);
+		int i = cell(x, y);
+		tile.count.increment(i);
+		tile.add(0, i, r);
+		tile.add(1, i, g);
+		tile.add(2, i, b);
+	}
+
+	public void set(int x, int y, long hits, double r, double g, double b) {
+		if (indexed) {
+			throw new UnsupportedOperationException("The histogram is indexed");
+		}
+		Tile tile = touch(x, y);
+		int i = cell(x, y);
+		tile.count.set(i, hits);
+		tile.set(0, i, r);
+		tile.set(1, i, g);
+		tile.set(2, i, b);
+	}
+
+	public void add(int x, int y, double index) {
+		if (!indexed) {
+			throw new UnsupportedOperationException("The histogram is not indexed");
+		}
+		Tile tile = touch(x, y);
+		int i = cell(x, y);
+		tile.count.increment(i);
+		tile.add(0, i, index);
+	}
+
+	public void set(int x, int y, long hits, double index) {
+		if (!indexed) {
+			throw new UnsupportedOperationException("The histogram is not indexed");
+		}
+		Tile tile = touch(x, y);
+		int i = cell(x, y);
+		tile.count.set(i, hits);
+		tile.set(0, i, index);
+	}
+
+	public void add(Histogram other, int fromRow, int toRow) {
+		if (!(other instanceof SparseHistogram)) {
+			super.add(other, fromRow, toRow);
+			return;
+		}
+		SparseHistogram o = (SparseHistogram) other;
+		for (int t = 0; t < tiles.length; t++) {
+			Tile from = o.tiles[t];
+			if (from == null) {
+				continue;
+			}
+			int x0 = (t % tilesX) << TILE_BITS;
+			int y0 = (t / tilesX) << TILE_BITS;
+			int start = Math.max(fromRow, y0);
+			int end = Math.min(toRow, y0 + TILE_SIZE);
+			if (start >= end) {
+				continue;
+			}
+			Tile to = null;
+			for (int i = cell(0, start), last = cell(0, end - 1) + TILE_SIZE; i < last; i++) {
+				long hits = from.count.get(i);
+				if (hits != 0) {
+					if (to == null) {
+						to = touch(x0, y0);
+					}
+					to.count.add(i, hits);
+					for (int c = 0; c < channels; c++) {
+						to.add(c, i, from.get(c, i));
+					}
+				}
+			}
+		}
+	}
+
+	public void clear(int fromRow, int toRow) {
+		for (int t = 0; t < tiles.length; t++) {
+			Tile tile = tiles[t];
+			if (tile == null) {
+				continue;
+			}
+			int y0 = (t / tilesX) << TILE_BITS;
+			int bottom = Math.min(y0 + TILE_SIZE, height);
+			int start = Math.max(fromRow, y0);
+			int end = Math.min(toRow, bottom);
+			if (start == y0 && end == bottom) {
+				// Give back the memory of tiles that are cleared as a whole. Only
+				// this thread can be working on their rows, so only the count of
+				// allocated tiles needs the lock.
+				tiles[t] = null;
+				synchronized (this) {
+					allocated--;
+				}
+			} else if (start < end) {
+				int from = cell(0, start);
+				int to = cell(0, end - 1) + TILE_SIZE;
+				tile.count.clear(from, to);
+				for (int c = 0; c < channels; c++) {
+					if (singlePrecision) {
+						Arrays.fill(tile.singles, c * TILE_CELLS + from, c * TILE_CELLS + to, 0);
+					} else {
+						Arrays.fill(tile.doubles, c * TILE_CELLS + from, c * TILE_CELLS + to, 0);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Implementation of the chaos game to generate flame fractals
+ * Copyright (c) 2014, Roman Klapaukh.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Turns the cells of a histogram into pixel colors.
+ *
+ * Each cell's color is scaled by log(hits) / hits and gamma corrected, and the
+ * cells are then resolved into pixels by a Downsampler. Both curves
+ * are looked up in precomputed tables, so changing the gamma only means
+ * recomputing one small table rather than a pow per cell.
+ *
+ * With a DensityEstimator each cell is colored from the density and color of
+ * the hits around it instead, scaled by log(1 + density).
+ */
+public class ToneMapper {
+	// Hit counts below this have their log density looked up rather than computed.
+	private static final int DENSITY_TABLE_SIZE = 1 << 16;
+
+	// The number of steps the gamma curve is sampled at over [0, 1].
+	private static final int GAMMA_TABLE_SIZE = 1 << 16;
+
+	// log(n) / n for every hit count n, shared by all tone mappers.
+	private static final float[] DENSITY = new float[DENSITY_TABLE_SIZE];
+	static {
+		for (int n = 1; n < DENSITY_TABLE_SIZE; n++) {
+			DENSITY[n] = (float) (Math.log(n) / n);
+		}
+	}
+
+	// x^(1/gamma) sampled over [0, 1], with one extra entry for interpolating at 1.
+	private final float[] curve = new float[GAMMA_TABLE_SIZE + 2];
+	private double gamma = Double.NaN;
+
+	/**
+	 * Set the gamma, recomputing the gamma curve if it has changed.
+	 */
+	public void setGamma(double gamma) {
+		if (gamma == this.gamma) {
+			return;
+		}
+		for (int i = 0; i <= GAMMA_TABLE_SIZE; i++) {
+			curve[i] = (float) Math.pow(i / (double) GAMMA_TABLE_SIZE, 1.0 / gamma);
+		}
+		curve[GAMMA_TABLE_SIZE + 1] = 1;
+		this.gamma = gamma;
+	}
+
+	private static float density(long hits) {
+		return hits < DENSITY_TABLE_SIZE ? DENSITY[(int) hits] : (float) (Math.log(hits) / hits);
+	}
+
+	/**
+	 * The gamma corrected value of a component, clamped to [0, 1].
+	 */
+	private float correct(float value) {
+		if (value >= 1) {
+			return 1;
+		}
+		float position = value * GAMMA_TABLE_SIZE;
+		int i = (int) position;
+		float fraction = position - i;
+		return curve[i] + (curve[i + 1] - curve[i]) * fraction;
+	}
+
+	/**
+	 * The pixels of the image, if it stores them as one int per pixel.
+	 * Writing to these directly is much faster than setting the pixels one at a time.
+	 */
+	public static int[] getPixels(BufferedImage image) {
+		if ((image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)
+				&& image.getRaster().getDataBuffer() instanceof DataBufferInt
+				&& image.getRaster().getParent() == null) {
+			return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		}
+		return null;
+	}
+
+	/**
+	 * Tone map the rows [fromRow, toRow) of the image from the histogram. Each
+	 * row of supersamples is tone mapped, and the rows are then resolved into
+	 * pixels by the downsampler.
+	 *
+	 * @param pixels The pixels of the image as returned by getPixels, or null to set them through the image.
+	 * @param estimator The density estimator to smooth the histogram with, or null to use its cells as they are.
+	 * @return The number of pixels drawn, that is the number of pixels with at least one hit.
+	 */
+	public long toneMap(Histogram histogram, BufferedImage image, int[] pixels, int fromRow, int toRow,
+			Downsampler downsampler, DensityEstimator estimator) {
+		int width = image.getWidth();
+		int fromCell = Math.max(downsampler.getFirstCell(fromRow), 0);
+		int toCell = Math.min(downsampler.getEndCell(toRow - 1), histogram.getHeight());
+		if (estimator != null) {
+			estimator.prepare(histogram, fromCell, toCell);
+		}
+
+		// Tone map the rows of supersamples and filter them horizontally.
+		downsampler.startBand(fromCell, toCell);
+		for (int y = fromCell; y < toCell; y++) {
+			toneMapRow(histogram, y, downsampler, estimator);
+		}
+
+		// Filter the rows vertically into pixels.
+		int[] row = pixels != null ? null : new int[width];
+		long count = 0;
+		for (int py = fromRow; py < toRow; py++) {
+			downsampler.resolveRow(py);
+			for (int px = 0; px < width; px++) {
+				int rgb = 0xff000000;
+				float c = downsampler.pixelCoverage[px];
+				if (c > 0) {
+					count++;
+					rgb |= (channel(downsampler.pixelRed[px] / c) << 16) | (channel(downsampler.pixelGreen[px] / c) << 8)
+							| channel(downsampler.pixelBlue[px] / c);
+				}
+				if (pixels != null) {
+					pixels[py * width + px] = rgb;
+				} else {
+					row[px] = rgb;
+				}
+			}
+			if (pixels == null) {
+				image.setRGB(0, py, width, 1, row, 0, width);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Tone map a row of supersamples into the downsampler's row, and filter it.
+	 * The downsampler's row is empty to start with, so only the hits are filled in.
+	 */
+	private void toneMapRow(Histogram histogram, int y, Downsampler downsampler, DensityEstimator estimator) {
+		float[] red = downsampler.red;
+		float[] green = downsampler.green;
+		float[] blue = downsampler.blue;
+		float[] coverage = downsampler.coverage;
+		int cells = histogram.getWidth();
+
+		// The range of the row that has any hits.
+		int fromX = cells;
+		int toX = 0;
+		// Only the cells that may have hits are visited, unless the empty cells can
+		// pick up the hits around them by density estimation.
+		boolean skipEmpty = estimator == null;
+		for (int x = skipEmpty ? histogram.nextCell(0, y) : 0; x < cells; x = skipEmpty ? histogram.nextCell(x + 1, y) : x + 1) {
+			float alpha;
+			double r, g, b;
+			if (estimator != null) {
+				if (!estimator.estimate(x, y)) {
+					continue;
+				}
+				alpha = (float) Math.log1p(estimator.getDensity());
+				r = estimator.getRed();
+				g = estimator.getGreen();
+				b = estimator.getBlue();
+			} else {
+				long hits = histogram.getCount(x, y);
+				if (hits == 0) {
+					continue;
+				}
+				alpha = density(hits);
+				r = histogram.getRed(x, y);
+				g = histogram.getGreen(x, y);
+				b = histogram.getBlue(x, y);
+			}
+			red[x] = correct((float) (alpha * r));
+			green[x] = correct((float) (alpha * g));
+			blue[x] = correct((float) (alpha * b));
+			coverage[x] = 1;
+			fromX = Math.min(fromX, x);
+			toX = x + 1;
+		}
+		downsampler.filterRow(y, fromX, toX);
+	}
+
+	/**
+	 * A component in [0, 1] as a byte, clamping the overshoot of filters with negative lobes.
+	 */
+	private static int channel(float value) {
+		return value <= 0 ? 0 : value >= 1 ? 255 : (int) (value * 255 + 0.5f);
+	}
+}
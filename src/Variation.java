@@ -16,74 +16,146 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.util.Random;
-
 public abstract class Variation {
-	
-	public abstract void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand);	
+
+	// The derived inputs a variation may read, as bit flags.
+	public static final int NONE = 0;
+	public static final int R = 1;
+	public static final int THETA = 2;
+	public static final int PHI = 4;
+
+	public abstract void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand);	
+
+	/**
+	 * The derived inputs (R, THETA and PHI) this variation reads. The inputs it
+	 * does not declare may be passed to apply as 0, so they need not be computed.
+	 */
+	public int getInputs() {
+		return R | THETA | PHI;
+	}
+
+	/**
+	 * The parameters the variation was created with, as it keeps them. Variations
+	 * without parameters have none.
+	 */
+	public double[] getParameters() {
+		return new double[0];
+	}
+
+	/**
+	 * Use the parameters getParameters gave, rather than the ones the variation was
+	 * created with.
+	 *
+	 * @throws IllegalArgumentException If there are not as many as the variation has.
+	 */
+	public void setParameters(double[] parameters) {
+		checkParameters(parameters, 0);
+	}
+
+	protected static void checkParameters(double[] parameters, int count) {
+		if (parameters.length != count) {
+			throw new IllegalArgumentException("Expected " + count + " parameters, not " + parameters.length);
+		}
+	}
 
 	public String toString() {
 		return this.getClass().getName().substring("variation$".length());
 	}
 
 	public static class Linear extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = p[0];
 			newp[1] = p[1];
 		}
 	}
 
 	public static class Sinusoidal extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = Math.sin(p[0]);
 			newp[1] = Math.sin(p[1]);
 		}
 	}
 
 	public static class Spherical extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] *= (1.0 / (r * r));
 			newp[1] *= (1.0 / (r * r));
 		}
 	}
 
 	public static class Swirl extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = p[0] * Math.sin(r * r) - p[0] * Math.cos(r * r);
 			newp[1] = p[0] * Math.cos(r * r) - p[1] * Math.sin(r * r);
 		}
 	}
 
 	public static class Horseshoe extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = 1 / r * ((p[0] - p[1]) * (p[0] + p[1]));
 			newp[1] = 2 * p[0] * p[1];
 		}
 	}
 
 	public static class Polar extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = theta / Math.PI;
 			newp[1] = r - 1;
 		}
 	}
 
 	public static class Handkerchief extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = r * Math.sin(theta + r);
 			newp[1] = r * Math.cos(theta - r);
 		}
 	}
 
 	public static class Heart extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = r * Math.sin(theta * r);
 			newp[0] = -r * Math.cos(theta * r);
 		}
 	}
 
 	public static class Disc extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t = theta / Math.PI;
 			newp[0] = t * Math.sin(Math.PI * r);
 			newp[0] = t * Math.cos(Math.PI * r);
@@ -91,28 +163,44 @@ public abstract class Variation {
 	}
 
 	public static class Spiral extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = (1 / r) * (Math.cos(theta) + Math.sin(r));
 			newp[0] = (1 / r) * (Math.sin(theta) + Math.cos(r));
 		}
 	}
 
 	public static class Hyperbolic extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = Math.sin(theta) / r;
 			newp[1] = r * Math.cos(theta);
 		}
 	}
 
 	public static class Diamond extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = Math.sin(theta) * Math.cos(r);
 			newp[1] = Math.cos(theta) * Math.sin(r);
 		}
 	}
 
 	public static class Ex extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double p0 = Math.sin(theta + r);
 			double p1 = Math.cos(theta - r);
 			p0 = p0 * p0 * p0;
@@ -123,7 +211,11 @@ public abstract class Variation {
 	}
 
 	public static class Julia extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double sqr = Math.sqrt(r);
 			newp[0] = sqr * (Math.cos(theta / 2 + (rand.nextBoolean() ? 0 : Math.PI)));
 			newp[1] = sqr * (Math.sin(theta / 2 + (rand.nextBoolean() ? 0 : Math.PI)));
@@ -131,7 +223,11 @@ public abstract class Variation {
 	}
 
 	public static class Bent extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			if (p[0] >= 0 && p[1] >= 0) {
 				newp[0] = p[0];
 				newp[1] = p[1];
@@ -149,14 +245,22 @@ public abstract class Variation {
 	}
 
 	public static class Waves extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = p[0] + c[1] * Math.sin(p[1] / (c[2] * c[2]));
 			newp[1] = p[1] + c[4] * Math.sin(p[0] / (c[5] * c[5]));
 		}
 	}
 
 	public static class Fisheye extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double e = 2.0 / (r + 1.0);
 			newp[0] = e * p[1];
 			newp[1] = e * p[0];
@@ -164,14 +268,22 @@ public abstract class Variation {
 	}
 
 	public static class Popcorn extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = p[0] + c[2] * Math.sin(Math.tan(3 * p[1]));
 			newp[1] = p[1] + c[5] * Math.sin(Math.tan(3 * p[0]));
 		}
 	}
 
 	public static class Exponential extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double e = Math.exp(p[0] - 1);
 			newp[0] = e * Math.cos(Math.PI * p[1]);
 			newp[1] = e * Math.sin(Math.PI * p[1]);
@@ -179,7 +291,11 @@ public abstract class Variation {
 	}
 
 	public static class Power extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double e = Math.pow(r, Math.sin(theta));
 			newp[0] = e * Math.cos(theta);
 			newp[1] = e * Math.sin(theta);
@@ -187,14 +303,22 @@ public abstract class Variation {
 	}
 
 	public static class Cosine extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = Math.cos(Math.PI * p[0]) * Math.cosh(p[1]);
 			newp[1] = -Math.sin(Math.PI * p[0]) * Math.sinh(p[1]);
 		}
 	}
 
 	public static class Rings extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double e = ((r + c[2] * c[2]) % (2 * c[2] * c[2])) - c[2] * c[2] + r * (1 - c[2] * c[2]);
 			newp[0] = e * Math.cos(theta);
 			newp[0] = e * Math.sin(theta);
@@ -202,7 +326,11 @@ public abstract class Variation {
 	}
 
 	public static class Fan extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t = Math.PI * c[2] * c[2];
 			if ((theta + c[5]) % t > t / 2) {
 				newp[0] = r * Math.cos(theta - t / 2);
@@ -225,7 +353,24 @@ public abstract class Variation {
 			this.waves = waves;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					high, low, waves
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 3);
+			high = parameters[0];
+			low = parameters[1];
+			waves = parameters[2];
+		}
+
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double e = r * (low + ((high - low) / 2) * Math.sin(waves * theta + 1));
 			newp[0] = e * Math.cos(theta);
 			newp[1] = e * Math.sin(theta);
@@ -242,7 +387,25 @@ public abstract class Variation {
 			this.p4 = d;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					p1, p2, p3, p4
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 4);
+			p1 = parameters[0];
+			p2 = parameters[1];
+			p3 = parameters[2];
+			p4 = parameters[3];
+		}
+
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = Math.sin(p1 * p[1]) - Math.cos(p2 * p[0]);
 			newp[1] = Math.sin(p3 * p[1]) - Math.cos(p4 * p[0]);
 		}
@@ -256,7 +419,23 @@ public abstract class Variation {
 			p1 = Math.PI * x * x;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					p1, p2
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 2);
+			p1 = parameters[0];
+			p2 = parameters[1];
+		}
+
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t = theta + p2 - p1 * (Math.floor((2 * theta * p2) / p1));
 			if (t > p1 / 2) {
 				newp[0] = r * Math.sin(theta - p1 / 2);
@@ -275,7 +454,22 @@ public abstract class Variation {
 			v = val * val;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					v
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 1);
+			v = parameters[0];
+		}
+
+		public int getInputs() {
+			return R | THETA;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t = r - 2 * v * (Math.floor((r + v) / (2 * v))) + r * (1 - v);
 			newp[0] = t * Math.sin(theta);
 			newp[1] = t * Math.cos(theta);
@@ -283,7 +477,11 @@ public abstract class Variation {
 	}
 
 	public static class Eyefish extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t = 2 / (r + 1);
 			newp[0] = t * p[0];
 			newp[1] = t * p[1];
@@ -291,7 +489,11 @@ public abstract class Variation {
 	}
 
 	public static class Bubble extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return R;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t = 4 / (r * r + 4);
 			newp[0] = t * p[0];
 			newp[1] = t * p[1];
@@ -299,7 +501,11 @@ public abstract class Variation {
 	}
 
 	public static class Cylinder extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = Math.sin(p[0]);
 			newp[1] = p[1];
 		}
@@ -313,7 +519,23 @@ public abstract class Variation {
 			p2 = dist;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					p1, p2
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 2);
+			p1 = parameters[0];
+			p2 = parameters[1];
+		}
+
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t = p2 / (p2 - p[0] * Math.sin(p1));
 			newp[0] = t * p[0];
 			newp[1] = t * p[1] * Math.cos(p1);
@@ -321,7 +543,11 @@ public abstract class Variation {
 	}
 
 	public static class Noise extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t1 = rand.nextDouble();
 			double t2 = rand.nextDouble();
 			newp[0] = t1 * p[0] * Math.cos(2 * Math.PI * t2);
@@ -337,7 +563,23 @@ public abstract class Variation {
 			p2 = dist;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					p1, p2
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 2);
+			p1 = parameters[0];
+			p2 = parameters[1];
+		}
+
+		public int getInputs() {
+			return R | PHI;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double p3 = Math.floor(Math.abs(p1) * rand.nextDouble());
 			double t = (phi + 2 * Math.PI * p3) / p1;
 			double f = Math.pow(r, p2 / p1);
@@ -354,7 +596,23 @@ public abstract class Variation {
 			p2 = dist;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					p1, p2
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 2);
+			p1 = parameters[0];
+			p2 = parameters[1];
+		}
+
+		public int getInputs() {
+			return R | PHI;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double p3 = Math.floor(Math.abs(p1) * rand.nextDouble());
 			double t = ((rand.nextBoolean() ? 1 : -1) * phi + 2 * Math.PI * p3) / p1;
 			double f = Math.pow(r, p2 / p1);
@@ -364,7 +622,11 @@ public abstract class Variation {
 	}
 
 	public static class Blur extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double psi1 = rand.nextDouble();
 			double psi2 = rand.nextDouble();
 			newp[0] = psi1 * Math.cos(2 * Math.PI * psi2);
@@ -373,7 +635,11 @@ public abstract class Variation {
 	}
 
 	public static class Gaussian extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double psi1 = 0;
 			for (int i = 0; i < 4; i++) {
 				psi1 += rand.nextDouble() - 1;
@@ -393,7 +659,23 @@ public abstract class Variation {
 			v = v36;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					p1, v
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 2);
+			p1 = parameters[0];
+			v = parameters[1];
+		}
+
+		public int getInputs() {
+			return R | PHI;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t1 = 0;
 			for (int i = 0; i < 4; i++) {
 				t1 += rand.nextDouble() - 2;
@@ -416,7 +698,24 @@ public abstract class Variation {
 			p3 = thickness;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					p1, p2, p3
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 3);
+			p1 = parameters[0];
+			p2 = parameters[1];
+			p3 = parameters[2];
+		}
+
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t1 = Math.floor(rand.nextDouble() * p1 + 0.5);
 			double t2 = p2 + ((2 * Math.PI) / p1) * (t1 * rand.nextDouble() * p3);
 			double psi3 = rand.nextDouble();
@@ -435,7 +734,25 @@ public abstract class Variation {
 			p4 = circle;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					p1, p2, p3, p4
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 4);
+			p1 = parameters[0];
+			p2 = parameters[1];
+			p3 = parameters[2];
+			p4 = parameters[3];
+		}
+
+		public int getInputs() {
+			return R | PHI;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t3 = phi - p2 * Math.floor(phi / p2);
 			double t4;
 			if (t3 > p2 / 2) {
@@ -457,7 +774,23 @@ public abstract class Variation {
 			this.p2 = c2;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					p1, p2
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 2);
+			p1 = parameters[0];
+			p2 = parameters[1];
+		}
+
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t1 = 1 + p1 * p[0] + p2 * (p[0] * p[0] - p[1] * p[1]);
 			double t2 = p1 * p[1] + 2 * p2 * p[0] * p[1];
 			double k = 1.0 / (t1 * t1 + t2 * t2);
@@ -474,7 +807,23 @@ public abstract class Variation {
 			p2 = y;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					p1, p2
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 2);
+			p1 = parameters[0];
+			p2 = parameters[1];
+		}
+
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = (2 * Math.floor(p[0] / p1) + 1) * p1 - p[0];
 			newp[1] = (2 * Math.floor(p[1] / p2) + 1) * p2 - p[1];
 		}
@@ -487,21 +836,44 @@ public abstract class Variation {
 			this.v = v41;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					v
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 1);
+			v = parameters[0];
+		}
+
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = Math.sin(rand.nextDouble() * Math.PI * v);
 			newp[1] = Math.pow(Math.sin(rand.nextDouble() * Math.PI * v), 2) / Math.cos(rand.nextDouble() * Math.PI * v);
 		}
 	}
 
 	public static class Tangent extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = Math.sin(p[0]) / Math.cos(p[1]);
 			newp[1] = Math.tan(p[1]);
 		}
 	}
 
 	public static class Square extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = rand.nextDouble() - 0.5;
 			newp[1] = rand.nextDouble() - 0.5;
 		}
@@ -514,7 +886,22 @@ public abstract class Variation {
 			this.v = v44;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					v
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 1);
+			v = parameters[0];
+		}
+
+		public int getInputs() {
+			return R;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double k = v * Math.tan(rand.nextDouble() * Math.PI * v) / (r * r);
 			newp[0] = k * Math.cos(p[0]);
 			newp[1] = k * Math.sin(p[1]);
@@ -528,7 +915,22 @@ public abstract class Variation {
 			this.v = v45;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					v
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 1);
+			v = parameters[0];
+		}
+
+		public int getInputs() {
+			return R;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = p[0] * (Math.cos(rand.nextDouble() * r * v) + Math.sin(rand.nextDouble() * r * v));
 			newp[1] = p[0] * (Math.cos(rand.nextDouble() * r * v) - Math.sin(rand.nextDouble() * r * v));
 		}
@@ -541,7 +943,22 @@ public abstract class Variation {
 			this.v = v46;
 		}
 
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					v
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 1);
+			v = parameters[0];
+		}
+
+		public int getInputs() {
+			return R;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			newp[0] = p[0];
 			newp[1] = 1.0 / (v * Math.cos(v * r));
 		}
@@ -552,7 +969,21 @@ public abstract class Variation {
 		public Twintrian(double v47){
 			this.v = v47;
 		}
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public double[] getParameters() {
+			return new double[] {
+					v
+			};
+		}
+
+		public void setParameters(double[] parameters) {
+			checkParameters(parameters, 1);
+			v = parameters[0];
+		}
+		public int getInputs() {
+			return R;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t = Math.log10(Math.pow(Math.sin(rand.nextDouble() * r * v),2)) + Math.cos(rand.nextDouble() * r * v);
 			newp[0] = p[0] * t;
 			newp[1] = p[0] * (t - Math.PI * Math.sin(rand.nextDouble() * r * v));
@@ -560,7 +991,11 @@ public abstract class Variation {
 	}
 
 	public static class Cross extends Variation {
-		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, Random rand) {
+		public int getInputs() {
+			return NONE;
+		}
+
+		public void apply(double[] p, double[] newp, double[] c, double r, double theta, double phi, FastRandom rand) {
 			double t = p[0] * p[0] + p[1] * p[1];
 			t *= t;
 			t = 1/t;